@@ -1,15 +1,112 @@
 package org.mule.extension.apache.pdfbox.internal;
 
+import static org.mule.runtime.api.meta.ExpressionSupport.NOT_SUPPORTED;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.mule.extension.apache.pdfbox.api.enums.MemoryPolicy;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentCache;
+import org.mule.runtime.api.lifecycle.Disposable;
 import org.mule.runtime.extension.api.annotation.*;
 import org.mule.runtime.extension.api.annotation.Operations;
 import org.mule.runtime.extension.api.annotation.param.Parameter;
 import org.mule.runtime.extension.api.annotation.param.display.Placement;
 import org.mule.runtime.extension.api.annotation.param.Optional;
 
+import java.io.File;
+
 /**
  * This class represents an extension configuration, values set in this class are commonly used across multiple
  * operations since they represent something core from the extension.
  */
-@Operations(Operations.class)
-public class Configuration {
+@Operations(PDFBoxOperations.class)
+public class Configuration implements Disposable {
+
+  /**
+   * Where PDFBox keeps the data of the documents being loaded, merged or created: only on the heap, on the heap
+   * up to Max Main Memory Bytes and then in scratch files, or only in scratch files.
+   */
+  @Parameter
+  @Optional(defaultValue = "MAIN_MEMORY_ONLY")
+  @Expression(NOT_SUPPORTED)
+  @Placement(tab = "Memory")
+  private MemoryPolicy memoryPolicy;
+
+  /**
+   * Heap budget of every document when the memory policy is MIXED.
+   */
+  @Parameter
+  @Optional(defaultValue = "67108864")
+  @Placement(tab = "Memory")
+  private long maxMainMemoryBytes;
+
+  /**
+   * Directory for the scratch files, defaults to java.io.tmpdir.
+   */
+  @Parameter
+  @Optional
+  @Placement(tab = "Memory")
+  private String scratchDirectory;
+
+  /**
+   * Number of parsed documents kept open to be reused by later ExtractText, PDF to Image and Extract Images
+   * operations on the same input, 0 disables the cache.
+   */
+  @Parameter
+  @Optional(defaultValue = "0")
+  @Placement(tab = "Cache")
+  private int documentCacheSize;
+
+  private DocumentCache documentCache;
+
+  public MemoryPolicy getMemoryPolicy() {
+    return memoryPolicy;
+  }
+
+  public long getMaxMainMemoryBytes() {
+    return maxMainMemoryBytes;
+  }
+
+  public String getScratchDirectory() {
+    return scratchDirectory;
+  }
+
+  public int getDocumentCacheSize() {
+    return documentCacheSize;
+  }
+
+  /**
+   * @return the parsed documents shared by the operations of this configuration.
+   */
+  public synchronized DocumentCache getDocumentCache() {
+    if (documentCache == null) {
+      documentCache = new DocumentCache(documentCacheSize);
+    }
+    return documentCache;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    if (documentCache != null) {
+      documentCache.clear();
+    }
+  }
+
+  /**
+   * @return the PDFBox memory setting matching this configuration, to be used every time a document is loaded or
+   * created.
+   */
+  public MemoryUsageSetting getMemoryUsageSetting() {
+    MemoryUsageSetting setting;
+    if (memoryPolicy == MemoryPolicy.TEMP_FILE_ONLY) {
+      setting = MemoryUsageSetting.setupTempFileOnly();
+    } else if (memoryPolicy == MemoryPolicy.MIXED) {
+      setting = MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+    } else {
+      setting = MemoryUsageSetting.setupMainMemoryOnly();
+    }
+    if (scratchDirectory != null) {
+      setting.setTempDir(new File(scratchDirectory));
+    }
+    return setting;
+  }
 }
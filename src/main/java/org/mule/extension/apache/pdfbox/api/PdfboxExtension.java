@@ -6,8 +6,7 @@ import org.mule.runtime.extension.api.annotation.Extension;
 import org.mule.runtime.extension.api.annotation.Configurations;
 import org.mule.runtime.extension.api.annotation.dsl.xml.Xml;
 import org.mule.runtime.extension.api.annotation.connectivity.ConnectionProviders;
-import org.mule.runtime.extension.api.annotation.Operations;
-import org.mule.extension.apache.pdfbox.internal.PDFBoxOperations;
+import org.mule.extension.apache.pdfbox.internal.Configuration;
 
 /**
  * This is the main class of an extension, is the entry point from which configurations, connection providers, operations
@@ -15,7 +14,7 @@ import org.mule.extension.apache.pdfbox.internal.PDFBoxOperations;
  */
 @Xml(prefix = "pdfbox")
 @Extension(name = "Apache PDFBox", vendor = "Gaston Panizza", category = COMMUNITY)
-@Operations({PDFBoxOperations.class})
+@Configurations({Configuration.class})
 public class PdfboxExtension {
 
 }
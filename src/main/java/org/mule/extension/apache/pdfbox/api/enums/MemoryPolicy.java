@@ -0,0 +1,17 @@
+package org.mule.extension.apache.pdfbox.api.enums;
+
+public enum MemoryPolicy {
+    MAIN_MEMORY_ONLY("MAIN_MEMORY_ONLY"),
+    MIXED("MIXED"),
+    TEMP_FILE_ONLY("TEMP_FILE_ONLY");
+
+    private String policy;
+
+    MemoryPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+}
@@ -8,13 +8,22 @@ import org.mule.extension.apache.pdfbox.api.enums.PagesBehavior;
 import org.mule.extension.apache.pdfbox.api.exceptions.InvalidColorException;
 import org.mule.extension.apache.pdfbox.api.exceptions.NoWriterFoundException;
 import org.mule.extension.apache.pdfbox.internal.operations.*;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentSource;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget.MemoryTarget;
 import org.mule.runtime.extension.api.annotation.Expression;
+import org.mule.runtime.extension.api.annotation.param.Config;
+import org.mule.runtime.extension.api.annotation.param.Content;
 import org.mule.runtime.extension.api.annotation.param.MediaType;
 import org.mule.runtime.extension.api.annotation.param.display.*;
+import org.mule.runtime.extension.api.runtime.operation.Result;
 import org.mule.extension.apache.pdfbox.api.enums.OverlayPosition;
 import org.mule.runtime.extension.api.annotation.param.Optional;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class is a container for operations, every public method in this class will be taken as an extension operation.
@@ -23,41 +32,134 @@ public class PDFBoxOperations {
 
   @DisplayName("OverlayPDF")
   @MediaType(value = ANY, strict = false)
-  public String overlayPDF(String inputFile,
+  public String overlayPDF(@Config Configuration config,
+                           String inputFile,
                            String outputFile,
                            @Placement(tab="Overlay") String overlayFile,
                            @Placement(tab="Overlay") @Optional(defaultValue="BACKGROUND") @Expression(NOT_SUPPORTED) OverlayPosition position,
                            @Placement(tab="Overlay") @Optional(defaultValue="ALL") @Expression(NOT_SUPPORTED) PagesBehavior pagesBehavior,
                            @Placement(tab="Overlay") @Optional String page) throws IOException{
-    OverlayPDF overlay = new OverlayPDF();
+    OverlayPDF overlay = new OverlayPDF(config.getMemoryUsageSetting());
     String message = overlay.OverlayPDF(inputFile, outputFile, overlayFile, position, pagesBehavior, page);
     return message;
   }
+  @DisplayName("OverlayPDFStream")
+  @MediaType(value = ANY, strict = false)
+  public String overlayPDFStream(@Config Configuration config,
+                                 @Content InputStream content,
+                                 String outputFile,
+                                 @Placement(tab="Overlay") String overlayFile,
+                                 @Placement(tab="Overlay") @Optional(defaultValue="BACKGROUND") @Expression(NOT_SUPPORTED) OverlayPosition position,
+                                 @Placement(tab="Overlay") @Optional(defaultValue="ALL") @Expression(NOT_SUPPORTED) PagesBehavior pagesBehavior,
+                                 @Placement(tab="Overlay") @Optional String page) throws IOException{
+    OverlayPDF overlay = new OverlayPDF(config.getMemoryUsageSetting());
+    String message = overlay.OverlayPDF(DocumentSource.fromStream(content), OutputTarget.files(), outputFile, overlayFile, position, pagesBehavior, page);
+    return message;
+  }
+  @DisplayName("OverlayPDFToStream")
+  @MediaType(value = "application/pdf", strict = false)
+  public Result<InputStream, Void> overlayPDFToStream(@Config Configuration config,
+                                                      @Content InputStream content,
+                                                      @Placement(tab="Overlay") String overlayFile,
+                                                      @Placement(tab="Overlay") @Optional(defaultValue="BACKGROUND") @Expression(NOT_SUPPORTED) OverlayPosition position,
+                                                      @Placement(tab="Overlay") @Optional(defaultValue="ALL") @Expression(NOT_SUPPORTED) PagesBehavior pagesBehavior,
+                                                      @Placement(tab="Overlay") @Optional String page) throws IOException{
+    MemoryTarget target = OutputTarget.memory();
+    OverlayPDF overlay = new OverlayPDF(config.getMemoryUsageSetting());
+    overlay.OverlayPDF(DocumentSource.fromStream(content), target, "overlay.pdf", overlayFile, position, pagesBehavior, page);
+    return toResult(target, "overlay.pdf");
+  }
+
+
 
   @DisplayName("PDFMerger")
   @MediaType(value = ANY, strict = false)
-  public String pdfMerger(String[] inputFiles, String outputFile) throws IOException{
-    PDFMerger merger = new PDFMerger();
-    String message = merger.PDFMerger(inputFiles, outputFile);
+  public String pdfMerger(@Config Configuration config,
+                          String[] inputFiles, String outputFile,
+                          @Placement(tab="Advanced") @Optional(defaultValue="false") boolean streaming) throws IOException{
+    PDFMerger merger = new PDFMerger(config.getMemoryUsageSetting());
+    String message = merger.PDFMerger(inputFiles, outputFile, streaming);
+    return message;
+  }
+  @DisplayName("PDFMergerStream")
+  @MediaType(value = ANY, strict = false)
+  public String pdfMergerStream(@Config Configuration config,
+                                @Content List<InputStream> contents, String outputFile,
+                                @Placement(tab="Advanced") @Optional(defaultValue="false") boolean streaming) throws IOException{
+    List<DocumentSource> sources = new ArrayList<>();
+    for (InputStream content : contents) {
+      sources.add(DocumentSource.fromStream(content));
+    }
+    PDFMerger merger = new PDFMerger(config.getMemoryUsageSetting());
+    String message = merger.PDFMerger(sources, OutputTarget.files(), outputFile, streaming);
     return message;
   }
+  @DisplayName("PDFMergerToStream")
+  @MediaType(value = "application/pdf", strict = false)
+  public Result<InputStream, Void> pdfMergerToStream(@Config Configuration config,
+                                                     @Content List<InputStream> contents,
+                                                     @Placement(tab="Advanced") @Optional(defaultValue="false") boolean streaming) throws IOException{
+    List<DocumentSource> sources = new ArrayList<>();
+    for (InputStream content : contents) {
+      sources.add(DocumentSource.fromStream(content));
+    }
+    MemoryTarget target = OutputTarget.memory();
+    PDFMerger merger = new PDFMerger(config.getMemoryUsageSetting());
+    merger.PDFMerger(sources, target, "merged.pdf", streaming);
+    return toResult(target, "merged.pdf");
+  }
+
+
 
   @DisplayName("PDFSplit")
   @MediaType(value = ANY, strict = false)
-  public String pdfSplit(String inputFile,
+  public String pdfSplit(@Config Configuration config,
+                         String inputFile,
                          String outputPrefix,
                          @Optional String startPage,
                          @Optional String endPage,
                          @Optional String split,
-                         @Optional @Password String password) throws IOException{
-    PDFSplit splitter = new PDFSplit();
-    String message = splitter.PDFSplit(inputFile, outputPrefix, startPage, endPage, split, password);
+                         @Optional @Password String password,
+                         @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism) throws IOException{
+    PDFSplit splitter = new PDFSplit(config.getMemoryUsageSetting());
+    String message = splitter.PDFSplit(inputFile, outputPrefix, startPage, endPage, split, password, parallelism);
+    return message;
+  }
+  @DisplayName("PDFSplitStream")
+  @MediaType(value = ANY, strict = false)
+  public String pdfSplitStream(@Config Configuration config,
+                               @Content InputStream content,
+                               String outputPrefix,
+                               @Optional String startPage,
+                               @Optional String endPage,
+                               @Optional String split,
+                               @Optional @Password String password,
+                         @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism) throws IOException{
+    PDFSplit splitter = new PDFSplit(config.getMemoryUsageSetting());
+    String message = splitter.PDFSplit(DocumentSource.fromStream(content), OutputTarget.files(), outputPrefix, startPage, endPage, split, password, parallelism);
     return message;
   }
+  @DisplayName("PDFSplitToStream")
+  @MediaType(value = "application/pdf", strict = false)
+  public List<Result<InputStream, Void>> pdfSplitToStream(@Config Configuration config,
+                                                          @Content InputStream content,
+                                                          @Optional String startPage,
+                                                          @Optional String endPage,
+                                                          @Optional String split,
+                                                          @Optional @Password String password,
+                         @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism) throws IOException{
+    MemoryTarget target = OutputTarget.memory();
+    PDFSplit splitter = new PDFSplit(config.getMemoryUsageSetting());
+    splitter.PDFSplit(DocumentSource.fromStream(content), target, "part", startPage, endPage, split, password, parallelism);
+    return toResults(target, splitter.getFileNames());
+  }
+
+
 
   @DisplayName("ExtractText")
   @MediaType(value = ANY, strict = false)
-  public String extractText(String inputFile,
+  public String extractText(@Config Configuration config,
+                            String inputFile,
                             String outputFile,
                             @Optional String startPage,
                             @Optional String endPage,
@@ -67,16 +169,69 @@ public class PDFBoxOperations {
                             @Optional boolean sort,
                             @Optional boolean separateBeads,
                             @Optional boolean alwaysNext,
-                            @Optional boolean rotationMagic) throws IOException{
-    ExtractText extracter = new ExtractText();
+                            @Optional boolean rotationMagic,
+                            @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism,
+                            @Placement(tab="Advanced") @Optional(defaultValue="65536") int bufferSize,
+                            @Placement(tab="Advanced") @Optional(defaultValue="16777216") long embeddedMemoryThreshold) throws IOException{
+    ExtractText extracter = new ExtractText(config.getMemoryUsageSetting(), config.getDocumentCache());
     String message = extracter.ExtractText(inputFile, outputFile, password, toConsole, toHTML, sort,
-                                           separateBeads,  alwaysNext, rotationMagic, startPage, endPage);
+                                           separateBeads,  alwaysNext, rotationMagic, startPage, endPage, parallelism, bufferSize,
+                                           embeddedMemoryThreshold);
+    return message;
+  }
+  @DisplayName("ExtractTextStream")
+  @MediaType(value = ANY, strict = false)
+  public String extractTextStream(@Config Configuration config,
+                                  @Content InputStream content,
+                                  String outputFile,
+                                  @Optional String startPage,
+                                  @Optional String endPage,
+                                  @Optional @Password String password,
+                                  @Optional boolean toConsole,
+                                  @Optional boolean toHTML,
+                                  @Optional boolean sort,
+                                  @Optional boolean separateBeads,
+                                  @Optional boolean alwaysNext,
+                                  @Optional boolean rotationMagic,
+                                  @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism,
+                                  @Placement(tab="Advanced") @Optional(defaultValue="65536") int bufferSize,
+                                  @Placement(tab="Advanced") @Optional(defaultValue="16777216") long embeddedMemoryThreshold) throws IOException{
+    ExtractText extracter = new ExtractText(config.getMemoryUsageSetting(), config.getDocumentCache());
+    String message = extracter.ExtractText(DocumentSource.fromStream(content), OutputTarget.files(), outputFile, password, toConsole, toHTML, sort,
+                                           separateBeads,  alwaysNext, rotationMagic, startPage, endPage, parallelism, bufferSize,
+                                           embeddedMemoryThreshold);
     return message;
   }
+  @DisplayName("ExtractTextToStream")
+  @MediaType(value = ANY, strict = false)
+  public Result<InputStream, Void> extractTextToStream(@Config Configuration config,
+                                                       @Content InputStream content,
+                                                       @Optional String startPage,
+                                                       @Optional String endPage,
+                                                       @Optional @Password String password,
+                                                       @Optional boolean toHTML,
+                                                       @Optional boolean sort,
+                                                       @Optional boolean separateBeads,
+                                                       @Optional boolean alwaysNext,
+                                                       @Optional boolean rotationMagic,
+                                                       @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism,
+                                                       @Placement(tab="Advanced") @Optional(defaultValue="65536") int bufferSize,
+                                                       @Placement(tab="Advanced") @Optional(defaultValue="16777216") long embeddedMemoryThreshold) throws IOException{
+    String name = toHTML ? "text.html" : "text.txt";
+    MemoryTarget target = OutputTarget.memory();
+    ExtractText extracter = new ExtractText(config.getMemoryUsageSetting(), config.getDocumentCache());
+    extracter.ExtractText(DocumentSource.fromStream(content), target, name, password, false, toHTML, sort,
+                          separateBeads,  alwaysNext, rotationMagic, startPage, endPage, parallelism, bufferSize,
+                          embeddedMemoryThreshold);
+    return toResult(target, name);
+  }
+
+
 
   @DisplayName("PDFToImage")
   @MediaType(value = ANY, strict = false)
-  public String pdfToImage(String inputFile,
+  public String pdfToImage(@Config Configuration config,
+                           String inputFile,
                            String outputPrefix,
                            @Optional(defaultValue="1")int startPage,
                            @Optional int endPage,
@@ -89,37 +244,223 @@ public class PDFBoxOperations {
                            @Placement(tab="Image Format") @Optional float cropBoxLowerLeftY,
                            @Placement(tab="Image Format") @Optional float cropBoxUpperRightX,
                            @Placement(tab="Image Format") @Optional float cropBoxUpperRightY,
-                           boolean subsampling) throws IOException, NoWriterFoundException, InvalidColorException {
-    PDFToImage extractor = new PDFToImage();
+                           boolean subsampling,
+                           @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism,
+                           @Placement(tab="Advanced") @Optional(defaultValue="1") int encoderThreads,
+                           @Placement(tab="Advanced") @Optional(defaultValue="2") int queueSize) throws IOException, NoWriterFoundException, InvalidColorException {
+    PDFToImage extractor = new PDFToImage(config.getMemoryUsageSetting(), config.getDocumentCache());
     String message = extractor.PDFToImage(inputFile, outputPrefix, startPage, endPage, password,
                                           imageFormat, color, dpi, quality, cropBoxLowerLeftX,
                                           cropBoxLowerLeftY, cropBoxUpperRightX, cropBoxUpperRightY,
-                                          subsampling);
+                                          subsampling, parallelism, encoderThreads, queueSize);
+    return message;
+  }
+  @DisplayName("PDFToImageStream")
+  @MediaType(value = ANY, strict = false)
+  public String pdfToImageStream(@Config Configuration config,
+                                 @Content InputStream content,
+                                 String outputPrefix,
+                                 @Optional(defaultValue="1")int startPage,
+                                 @Optional int endPage,
+                                 @Optional @Password String password,
+                                 @Placement(tab="Image Format") @Optional(defaultValue="jpg") String imageFormat,
+                                 @Placement(tab="Image Format") @Optional(defaultValue="rgb") String color,
+                                 @Placement(tab="Image Format") @Optional(defaultValue="96") int dpi,
+                                 @Placement(tab="Image Format") @Optional(defaultValue="-1") float quality,
+                                 @Placement(tab="Image Format") @Optional float cropBoxLowerLeftX,
+                                 @Placement(tab="Image Format") @Optional float cropBoxLowerLeftY,
+                                 @Placement(tab="Image Format") @Optional float cropBoxUpperRightX,
+                                 @Placement(tab="Image Format") @Optional float cropBoxUpperRightY,
+                                 boolean subsampling,
+                                 @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism,
+                                 @Placement(tab="Advanced") @Optional(defaultValue="1") int encoderThreads,
+                                 @Placement(tab="Advanced") @Optional(defaultValue="2") int queueSize) throws IOException, NoWriterFoundException, InvalidColorException {
+    PDFToImage extractor = new PDFToImage(config.getMemoryUsageSetting(), config.getDocumentCache());
+    String message = extractor.PDFToImage(DocumentSource.fromStream(content), OutputTarget.files(), outputPrefix, startPage, endPage, password,
+                                          imageFormat, color, dpi, quality, cropBoxLowerLeftX,
+                                          cropBoxLowerLeftY, cropBoxUpperRightX, cropBoxUpperRightY,
+                                          subsampling, parallelism, encoderThreads, queueSize);
     return message;
   }
+  @DisplayName("PDFToImageToStream")
+  @MediaType(value = ANY, strict = false)
+  public List<Result<InputStream, Void>> pdfToImageToStream(@Config Configuration config,
+                                                            @Content InputStream content,
+                                                            @Optional(defaultValue="1")int startPage,
+                                                            @Optional int endPage,
+                                                            @Optional @Password String password,
+                                                            @Placement(tab="Image Format") @Optional(defaultValue="jpg") String imageFormat,
+                                                            @Placement(tab="Image Format") @Optional(defaultValue="rgb") String color,
+                                                            @Placement(tab="Image Format") @Optional(defaultValue="96") int dpi,
+                                                            @Placement(tab="Image Format") @Optional(defaultValue="-1") float quality,
+                                                            @Placement(tab="Image Format") @Optional float cropBoxLowerLeftX,
+                                                            @Placement(tab="Image Format") @Optional float cropBoxLowerLeftY,
+                                                            @Placement(tab="Image Format") @Optional float cropBoxUpperRightX,
+                                                            @Placement(tab="Image Format") @Optional float cropBoxUpperRightY,
+                                                            boolean subsampling,
+                                                            @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism,
+                                                            @Placement(tab="Advanced") @Optional(defaultValue="1") int encoderThreads,
+                                                            @Placement(tab="Advanced") @Optional(defaultValue="2") int queueSize) throws IOException, NoWriterFoundException, InvalidColorException {
+    MemoryTarget target = OutputTarget.memory();
+    PDFToImage extractor = new PDFToImage(config.getMemoryUsageSetting(), config.getDocumentCache());
+    extractor.PDFToImage(DocumentSource.fromStream(content), target, "page", startPage, endPage, password,
+                         imageFormat, color, dpi, quality, cropBoxLowerLeftX,
+                         cropBoxLowerLeftY, cropBoxUpperRightX, cropBoxUpperRightY,
+                         subsampling, parallelism, encoderThreads, queueSize);
+    return toResults(target, extractor.getFileNames());
+  }
+
+
 
   @DisplayName("ExtactImages")
   @MediaType(value = ANY, strict = false)
-  public String extactImages(String inputFile,
+  public String extactImages(@Config Configuration config,
+                             String inputFile,
                              @Optional @Password String password,
                              String prefix,
                              @Placement(tab="Image Format") @Optional(defaultValue="true") boolean useDirectJPEG,
-                             @Placement(tab="Image Format") @Optional(defaultValue="true") boolean noColorConvert) throws IOException {
-    ExtractImages extractor = new ExtractImages();
-    String message = extractor.ExtractImages(inputFile, password, prefix, useDirectJPEG, noColorConvert);
+                             @Placement(tab="Image Format") @Optional(defaultValue="true") boolean noColorConvert,
+                             @Placement(tab="Image Format") @Optional boolean raw,
+                             @Placement(tab="Advanced") @Optional boolean writeManifest,
+                             @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism) throws IOException {
+    ExtractImages extractor = new ExtractImages(config.getMemoryUsageSetting(), config.getDocumentCache());
+    String message = extractor.ExtractImages(inputFile, password, prefix, useDirectJPEG, noColorConvert, writeManifest, parallelism, raw);
+    return message;
+  }
+  @DisplayName("ExtractImagesStream")
+  @MediaType(value = ANY, strict = false)
+  public String extractImagesStream(@Config Configuration config,
+                                    @Content InputStream content,
+                                    @Optional @Password String password,
+                                    String prefix,
+                                    @Placement(tab="Image Format") @Optional(defaultValue="true") boolean useDirectJPEG,
+                                    @Placement(tab="Image Format") @Optional(defaultValue="true") boolean noColorConvert,
+                                    @Placement(tab="Image Format") @Optional boolean raw,
+                                    @Placement(tab="Advanced") @Optional boolean writeManifest,
+                                    @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism) throws IOException {
+    ExtractImages extractor = new ExtractImages(config.getMemoryUsageSetting(), config.getDocumentCache());
+    String message = extractor.ExtractImages(DocumentSource.fromStream(content), OutputTarget.files(), password, prefix, useDirectJPEG, noColorConvert,
+                                             writeManifest, parallelism, raw);
     return message;
   }
+  @DisplayName("ExtractImagesToStream")
+  @MediaType(value = ANY, strict = false)
+  public List<Result<InputStream, Void>> extractImagesToStream(@Config Configuration config,
+                                                               @Content InputStream content,
+                                                               @Optional @Password String password,
+                                                               @Placement(tab="Image Format") @Optional(defaultValue="true") boolean useDirectJPEG,
+                                                               @Placement(tab="Image Format") @Optional(defaultValue="true") boolean noColorConvert,
+                                                               @Placement(tab="Image Format") @Optional boolean raw,
+                                                               @Placement(tab="Advanced") @Optional boolean writeManifest,
+                                                               @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism) throws IOException {
+    MemoryTarget target = OutputTarget.memory();
+    ExtractImages extractor = new ExtractImages(config.getMemoryUsageSetting(), config.getDocumentCache());
+    extractor.ExtractImages(DocumentSource.fromStream(content), target, password, "image", useDirectJPEG, noColorConvert,
+                            writeManifest, parallelism, raw);
+    return toResults(target, extractor.getFileNames());
+  }
+
+
 
   @DisplayName("TextToPDF")
   @MediaType(value = ANY, strict = false)
-  public String textToPDF(String inputFile,
+  public String textToPDF(@Config Configuration config,
+                          String inputFile,
                           String outputFile,
                           @Placement(tab="PDF Format") @Optional String ttfLocation,
                           @Placement(tab="PDF Format") @Optional String fontSize,
                           @Placement(tab="PDF Format") PageSizes pageSize,
-                          @Placement(tab="PDF Format") @Optional(defaultValue="false") boolean landscape) throws IOException {
-    TextToPDF text2pdf = new TextToPDF();
-    String message = text2pdf.TextToPDF(inputFile, outputFile, ttfLocation, fontSize, pageSize, landscape);
+                          @Placement(tab="PDF Format") @Optional(defaultValue="false") boolean landscape,
+                          @Placement(tab="Advanced") @Optional(defaultValue="false") boolean streaming) throws IOException {
+    TextToPDF text2pdf = new TextToPDF(config.getMemoryUsageSetting());
+    String message = text2pdf.TextToPDF(inputFile, outputFile, ttfLocation, fontSize, pageSize, landscape, streaming);
+    return message;
+  }
+  @DisplayName("TextToPDFStream")
+  @MediaType(value = ANY, strict = false)
+  public String textToPDFStream(@Config Configuration config,
+                                @Content InputStream content,
+                                String outputFile,
+                                @Placement(tab="PDF Format") @Optional String ttfLocation,
+                                @Placement(tab="PDF Format") @Optional String fontSize,
+                                @Placement(tab="PDF Format") PageSizes pageSize,
+                                @Placement(tab="PDF Format") @Optional(defaultValue="false") boolean landscape,
+                                @Placement(tab="Advanced") @Optional(defaultValue="false") boolean streaming) throws IOException {
+    TextToPDF text2pdf = new TextToPDF(config.getMemoryUsageSetting());
+    String message = text2pdf.TextToPDF(content, OutputTarget.files(), outputFile, ttfLocation, fontSize, pageSize, landscape, streaming);
     return message;
   }
+  @DisplayName("TextToPDFToStream")
+  @MediaType(value = "application/pdf", strict = false)
+  public Result<InputStream, Void> textToPDFToStream(@Config Configuration config,
+                                                     @Content InputStream content,
+                                                     @Placement(tab="PDF Format") @Optional String ttfLocation,
+                                                     @Placement(tab="PDF Format") @Optional String fontSize,
+                                                     @Placement(tab="PDF Format") PageSizes pageSize,
+                                                     @Placement(tab="PDF Format") @Optional(defaultValue="false") boolean landscape,
+                                                     @Placement(tab="Advanced") @Optional(defaultValue="false") boolean streaming) throws IOException {
+    MemoryTarget target = OutputTarget.memory();
+    TextToPDF text2pdf = new TextToPDF(config.getMemoryUsageSetting());
+    text2pdf.TextToPDF(content, target, "text.pdf", ttfLocation, fontSize, pageSize, landscape, streaming);
+    return toResult(target, "text.pdf");
+  }
+  @DisplayName("TextToPDFBatch")
+  @MediaType(value = ANY, strict = false)
+  public String textToPDFBatch(@Config Configuration config,
+                               @Optional String[] inputFiles,
+                               @Optional String inputDirectory,
+                               String outputDirectory,
+                               @Placement(tab="PDF Format") @Optional String ttfLocation,
+                               @Placement(tab="PDF Format") @Optional String fontSize,
+                               @Placement(tab="PDF Format") PageSizes pageSize,
+                               @Placement(tab="PDF Format") @Optional(defaultValue="false") boolean landscape,
+                               @Placement(tab="Advanced") @Optional(defaultValue="false") boolean streaming,
+                               @Placement(tab="Advanced") @Optional(defaultValue="1") int parallelism) throws IOException {
+    TextToPDF text2pdf = new TextToPDF(config.getMemoryUsageSetting());
+    String message = text2pdf.TextToPDF(TextToPDF.listInputFiles(inputFiles, inputDirectory), outputDirectory, ttfLocation, fontSize, pageSize, landscape, streaming, parallelism);
+    return message;
+  }
+
+
+
+  private static List<Result<InputStream, Void>> toResults(MemoryTarget target, List<String> names) {
+    List<Result<InputStream, Void>> results = new ArrayList<>();
+    for (String name : names) {
+      results.add(toResult(target, name));
+    }
+    return results;
+  }
+
+  private static Result<InputStream, Void> toResult(MemoryTarget target, String name) {
+    return Result.<InputStream, Void>builder()
+        .output(target.get(name))
+        .mediaType(mediaTypeOf(name))
+        .build();
+  }
+
+  private static org.mule.runtime.api.metadata.MediaType mediaTypeOf(String name) {
+    String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+    switch (extension) {
+      case "pdf":
+        return org.mule.runtime.api.metadata.MediaType.create("application", "pdf");
+      case "txt":
+        return org.mule.runtime.api.metadata.MediaType.TEXT;
+      case "html":
+        return org.mule.runtime.api.metadata.MediaType.HTML;
+      case "jpg":
+      case "jpeg":
+        return org.mule.runtime.api.metadata.MediaType.create("image", "jpeg");
+      case "tif":
+      case "tiff":
+        return org.mule.runtime.api.metadata.MediaType.create("image", "tiff");
+      case "png":
+      case "gif":
+      case "bmp":
+        return org.mule.runtime.api.metadata.MediaType.create("image", extension);
+      case "jp2":
+        return org.mule.runtime.api.metadata.MediaType.create("image", "jp2");
+      default:
+        return org.mule.runtime.api.metadata.MediaType.BINARY;
+    }
+  }
 }
@@ -17,59 +17,324 @@
 
 package org.mule.extension.apache.pdfbox.internal.operations;
 
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentCache;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentSource;
+import org.mule.extension.apache.pdfbox.internal.utils.ExtractedImages;
 import org.mule.extension.apache.pdfbox.internal.utils.ImageGraphicsEngine;
+import org.mule.extension.apache.pdfbox.internal.utils.ImageGraphicsEngine.FoundImage;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
+import org.mule.extension.apache.pdfbox.internal.utils.StreamDigest;
+import org.mule.extension.apache.pdfbox.internal.utils.WorkerPool;
+import org.mule.extension.apache.pdfbox.internal.utils.imageio.ImageWriterCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class ExtractImages
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(ExtractImages.class);
     private int imageCounter = 1;
+    private List<String> fileNames = new ArrayList<>();
+    private final MemoryUsageSetting memoryUsageSetting;
+    private final DocumentCache documentCache;
 
     public ExtractImages()
     {
+        this(MemoryUsageSetting.setupMainMemoryOnly(), DocumentCache.disabled());
     }
 
-    public String ExtractImages(String pdfFile, String password, String prefix, boolean useDirectJPEG, boolean noColorConvert) throws IOException
+    /**
+     * @param memoryUsageSetting where to keep the data of the documents loaded by the operation.
+     * @param documentCache the parsed documents shared with the other operations.
+     */
+    public ExtractImages(MemoryUsageSetting memoryUsageSetting, DocumentCache documentCache)
+    {
+        this.memoryUsageSetting = memoryUsageSetting;
+        this.documentCache = documentCache;
+    }
+
+    public String ExtractImages(String pdfFile, String password, String prefix, boolean useDirectJPEG, boolean noColorConvert,
+                                boolean writeManifest, int parallelism, boolean raw) throws IOException
     {
-        // suppress the Dock icon on OS X
-        System.setProperty("apple.awt.UIElement", "true");
         if (pdfFile == null)
         {
             LOGGER.debug("pdfFile is null");
             return usage();
         }
-        else
+        if (prefix == null && pdfFile.length() >4)
         {
-            if (prefix == null && pdfFile.length() >4)
+            prefix = pdfFile.substring(0, pdfFile.length() -4);
+        }
+        return ExtractImages(DocumentSource.fromFile(pdfFile), OutputTarget.files(), password, prefix, useDirectJPEG, noColorConvert,
+                writeManifest, parallelism, raw);
+    }
+
+    /**
+     * Every image is written once, named after the first page using it, even if several pages use it or the
+     * document stores identical copies of it.
+     *
+     * @param writeManifest if true, the images used by every page are listed in prefix-manifest.csv.
+     * @param parallelism the number of pages extracted at the same time, 0 for one per available core. The images
+     *                    and their names are the same whatever the parallelism.
+     * @param raw if true, JPEG, JPEG 2000, CCITT and JBIG2 images are written with the data they are encoded with
+     *            in the document, without decoding them. The decode array, color space and masks of these images
+     *            are not applied.
+     */
+    public String ExtractImages(DocumentSource source, OutputTarget target, String password, String prefix, boolean useDirectJPEG, boolean noColorConvert,
+                                boolean writeManifest, int parallelism, boolean raw) throws IOException
+    {
+        // suppress the Dock icon on OS X
+        System.setProperty("apple.awt.UIElement", "true");
+        try (DocumentCache.Lease lease = documentCache.acquire(source, password, memoryUsageSetting);
+             ImageWriterCache writers = new ImageWriterCache())
+        {
+            PDDocument document = lease.getDocument();
+            AccessPermission ap = document.getCurrentAccessPermission();
+            if (!ap.canExtractContent())
             {
-                prefix = pdfFile.substring(0, pdfFile.length() -4);
+                throw new IOException("You do not have permission to extract images");
             }
 
-            try (PDDocument document = Loader.loadPDF(new File(pdfFile), password))
+            ExtractedImages images = new ExtractedImages();
+            int pages = document.getNumberOfPages();
+            int workers = WorkerPool.parallelism(parallelism, pages);
+            if (workers == 1)
             {
-                AccessPermission ap = document.getCurrentAccessPermission();
-                if (!ap.canExtractContent())
+                StreamDigest digest = new StreamDigest();
+                int pageNumber = 1;
+                for (PDPage page : document.getPages())
                 {
-                    throw new IOException("You do not have permission to extract images");
+                    ImageGraphicsEngine extractor = new ImageGraphicsEngine(page, writers);
+                    extractor.run(target, images, digest, pageNumber++, prefix, imageCounter, useDirectJPEG,  noColorConvert,
+                            raw);
+                    imageCounter++;
                 }
+            }
+            else
+            {
+                extractInParallel(document, source, password, target, images, writers, prefix, useDirectJPEG,
+                        noColorConvert, raw, workers);
+                imageCounter += pages;
+            }
+            LOGGER.debug("Wrote " + images.getWritten() + " images, skipped " + images.getDuplicates() + " duplicates");
+            fileNames = images.getNames();
+            if (writeManifest)
+            {
+                try (Writer out = new OutputStreamWriter(target.open(prefix + "-manifest.csv"), StandardCharsets.UTF_8))
+                {
+                    images.writeManifest(out);
+                }
+                fileNames.add(prefix + "-manifest.csv");
+            }
+        }
+        return("The images from file " + source +" were extracted using the prefix " + prefix);
+    }
 
-                for (PDPage page : document.getPages())
+    /**
+     * @return the names of the images written by the last extraction, in page order whatever the parallelism, then
+     * the name of the manifest if one was written.
+     */
+    public List<String> getFileNames()
+    {
+        return fileNames;
+    }
+
+    /**
+     * Splits the pages into as many contiguous ranges as workers. PDFBox documents are not thread safe, so every
+     * extra worker loads its own handle of the document, while the calling thread takes the first range from the
+     * document already loaded. The workers first find the images of their pages, then every image is written by
+     * the worker of the first page using it, with the name the sequential extraction would give it. The pages are
+     * finally recorded in order, so that the manifest is the same as well.
+     */
+    private void extractInParallel(PDDocument document, DocumentSource source, String password, OutputTarget target,
+                                   ExtractedImages images, ImageWriterCache writers, String prefix,
+                                   boolean useDirectJPEG, boolean noColorConvert, boolean raw, int workers)
+            throws IOException
+    {
+        int pages = document.getNumberOfPages();
+        ParallelExtraction extraction = new ParallelExtraction(target, images, writers, prefix, imageCounter,
+                useDirectJPEG, noColorConvert, raw, pages, workers);
+        ExecutorService pool = WorkerPool.newPool("images", workers - 1);
+        try
+        {
+            List<Future<?>> extracting = new ArrayList<>();
+            for (int w = 1; w < workers; w++)
+            {
+                int start = w * pages / workers;
+                int end = (w + 1) * pages / workers;
+                extracting.add(pool.submit(() ->
                 {
-                    ImageGraphicsEngine extractor = new ImageGraphicsEngine(page);
-                    extractor.run(prefix, imageCounter, useDirectJPEG,  noColorConvert);
-                    imageCounter++;
+                    try (PDDocument handle = extraction.load(source, password, memoryUsageSetting))
+                    {
+                        extraction.extract(handle, start, end);
+                    }
+                    return null;
+                }));
+            }
+            extraction.extract(document, 0, pages / workers);
+            WorkerPool.awaitAll(extracting);
+        }
+        finally
+        {
+            pool.shutdownNow();
+            // a failed extraction returns once no worker writes images anymore
+            WorkerPool.awaitTermination(pool);
+        }
+        for (int i = 0; i < pages; i++)
+        {
+            Set<String> seen = new HashSet<>();
+            for (FoundImage image : extraction.found.get(i))
+            {
+                boolean first = images.getFirstPage(image.getKey()) == i + 1 && seen.add(image.getKey());
+                images.addToPage(i + 1, images.getName(image.getKey()), !first);
+            }
+        }
+    }
+
+    /**
+     * The state shared by the workers of a parallel extraction. Every worker finds the images of its pages, waits
+     * until all the workers have found theirs, then writes the images first used by its pages. When a worker
+     * fails, the others stop before writing their next page.
+     */
+    private static final class ParallelExtraction
+    {
+        private final OutputTarget target;
+        private final ExtractedImages images;
+        private final ImageWriterCache writers;
+        private final String prefix;
+        private final int firstCounter;
+        private final boolean useDirectJPEG;
+        private final boolean noColorConvert;
+        private final boolean raw;
+        private final List<List<FoundImage>> found;
+        private final CountDownLatch allFound;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        ParallelExtraction(OutputTarget target, ExtractedImages images, ImageWriterCache writers, String prefix,
+                           int firstCounter, boolean useDirectJPEG, boolean noColorConvert, boolean raw, int pages,
+                           int workers)
+        {
+            this.target = target;
+            this.images = images;
+            this.writers = writers;
+            this.prefix = prefix;
+            this.firstCounter = firstCounter;
+            this.useDirectJPEG = useDirectJPEG;
+            this.noColorConvert = noColorConvert;
+            this.raw = raw;
+            this.found = new ArrayList<>(Collections.nCopies(pages, null));
+            this.allFound = new CountDownLatch(workers);
+        }
+
+        /**
+         * Loads the handle of an extra worker. A worker that can't load its handle won't find its images, so it
+         * releases the other workers and fails the extraction.
+         */
+        PDDocument load(DocumentSource source, String password, MemoryUsageSetting memoryUsageSetting)
+                throws IOException
+        {
+            try
+            {
+                return source.load(password, memoryUsageSetting);
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                failed.set(true);
+                allFound.countDown();
+                throw e;
+            }
+        }
+
+        /**
+         * Extracts the images of the pages from index start to index end, excluded.
+         */
+        void extract(PDDocument document, int start, int end) throws IOException
+        {
+            try
+            {
+                // the same image is a different stream in every handle, so the images are matched by their content
+                findImages(document, start, end);
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                failed.set(true);
+                throw e;
+            }
+            finally
+            {
+                allFound.countDown();
+            }
+            try
+            {
+                allFound.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for workers", e);
+            }
+            try
+            {
+                writeImages(document, start, end);
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                failed.set(true);
+                throw e;
+            }
+        }
+
+        private void findImages(PDDocument document, int start, int end) throws IOException
+        {
+            StreamDigest digest = new StreamDigest();
+            for (int i = start; i < end; i++)
+            {
+                List<FoundImage> pageImages = new ImageGraphicsEngine(document.getPage(i)).collect(digest, i + 1);
+                for (FoundImage image : pageImages)
+                {
+                    images.see(image.getKey(), i + 1);
+                }
+                found.set(i, pageImages);
+            }
+        }
+
+        /**
+         * Writes the images first used by the pages, the failure of another worker is reported by that worker.
+         */
+        private void writeImages(PDDocument document, int start, int end) throws IOException
+        {
+            for (int i = start; i < end && !failed.get(); i++)
+            {
+                ImageGraphicsEngine extractor = new ImageGraphicsEngine(document.getPage(i), writers);
+                Set<String> seen = new HashSet<>();
+                for (FoundImage image : found.get(i))
+                {
+                    if (images.getFirstPage(image.getKey()) == i + 1 && seen.add(image.getKey()))
+                    {
+                        String name = ImageGraphicsEngine.getName(prefix, firstCounter + i, seen.size());
+                        images.add(image.getKey(), extractor.write(target, image.getImage(), name, useDirectJPEG,
+                                noColorConvert, raw));
+                    }
                 }
             }
         }
-        return("The images from file " + pdfFile +" were extracted using the prefix " + prefix);
     }
 
     /**
@@ -85,6 +350,12 @@ public final class ExtractImages
                 + "                           regardless of colorspace or masking\n"
                 + "  -noColorConvert        : Images are extracted with their \n"
                 + "                           original colorspace if possible.\n"
+                + "  -raw                   : JPEG, JPEG 2000, CCITT and JBIG2 images are written\n"
+                + "                           with their encoded data, without decoding them\n"
+                + "  -manifest              : Lists the images used by every page in\n"
+                + "                           <image-prefix>-manifest.csv\n"
+                + "  -parallelism <count>   : Number of pages extracted at the same time,\n"
+                + "                           0 for one per core (default 1)\n"
                 + "  <inputfile>            : The PDF document to use\n";
 
         return message;
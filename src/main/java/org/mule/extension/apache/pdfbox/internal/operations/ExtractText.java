@@ -1,31 +1,48 @@
 package org.mule.extension.apache.pdfbox.internal.operations;
 
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.apache.pdfbox.Loader;
-import org.apache.pdfbox.cos.COSArray;
-import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
 import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
 import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
 import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
 import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
 import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.pdfbox.text.TextPosition;
 import org.apache.pdfbox.util.Matrix;
+import org.mule.extension.apache.pdfbox.internal.utils.ChunkedWriter;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentCache;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentSource;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
 import org.mule.extension.apache.pdfbox.internal.utils.PDFText2HTML;
+import org.mule.extension.apache.pdfbox.internal.utils.WorkerPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,17 +52,27 @@ public final class ExtractText
     private static final Logger LOGGER = LoggerFactory.getLogger(ExtractText.class);
     private static final String STD_ENCODING = "UTF-8";
 
+    private final MemoryUsageSetting memoryUsageSetting;
+    private final DocumentCache documentCache;
+
     public ExtractText() throws IOException {
-        //static class
+        this(MemoryUsageSetting.setupMainMemoryOnly(), DocumentCache.disabled());
+    }
+
+    /**
+     * @param memoryUsageSetting where to keep the data of the documents loaded by the operation.
+     * @param documentCache the parsed documents shared with the other operations.
+     */
+    public ExtractText(MemoryUsageSetting memoryUsageSetting, DocumentCache documentCache) {
+        this.memoryUsageSetting = memoryUsageSetting;
+        this.documentCache = documentCache;
     }
 
 
     public String ExtractText(String pdfFile, String outputFile, String password, boolean toConsole, boolean toHTML, boolean sort, boolean separateBeads,  boolean alwaysNext, boolean rotationMagic,
-                                String startPage, String endPage) throws IOException
+                                String startPage, String endPage, int parallelism, int bufferSize,
+                                long embeddedMemoryThreshold) throws IOException
     {
-        System.setProperty("apple.awt.UIElement", "true");
-        @SuppressWarnings({"squid:S2068"})
-        String encoding = STD_ENCODING;
         // Defaults to text files
         String ext = ".txt";
 
@@ -53,168 +80,389 @@ public final class ExtractText
         {
             return usage();
         }
-        else
+        if( outputFile == null && pdfFile.length() >4 )
         {
+            outputFile = new File( pdfFile.substring( 0, pdfFile.length() -4 ) + ext ).getAbsolutePath();
+        }
+        return ExtractText(DocumentSource.fromFile(pdfFile), OutputTarget.files(), outputFile, password, toConsole, toHTML, sort,
+                separateBeads, alwaysNext, rotationMagic, startPage, endPage, parallelism, bufferSize,
+                embeddedMemoryThreshold);
+    }
 
-            Writer output = null;
-            PDDocument document = null;
-            try
+    /**
+     * @param parallelism number of workers extracting the pages of the main document at the same time, every extra
+     * worker uses its own handle of the document, then the number of embedded PDFs extracted at the same time.
+     * 0 uses one worker per core. Ignored when writing HTML.
+     * @param bufferSize number of chars collected before they are encoded and written to the output file.
+     * @param embeddedMemoryThreshold size in bytes up to which an embedded PDF is parsed from memory, bigger ones are
+     * copied to a scratch file first.
+     */
+
+    public String ExtractText(DocumentSource source, OutputTarget target, String outputFile, String password, boolean toConsole, boolean toHTML, boolean sort, boolean separateBeads,  boolean alwaysNext, boolean rotationMagic,
+                                String startPage, String endPage, int parallelism, int bufferSize,
+                                long embeddedMemoryThreshold) throws IOException
+    {
+        System.setProperty("apple.awt.UIElement", "true");
+        @SuppressWarnings({"squid:S2068"})
+        String encoding = STD_ENCODING;
+
+        Writer output = null;
+        DocumentCache.Lease lease = null;
+        try
+        {
+            long startTime = startProcessing("Loading PDF "+source);
+            lease = documentCache.acquire(source, password, memoryUsageSetting);
+            PDDocument document = lease.getDocument();
+
+            AccessPermission ap = document.getCurrentAccessPermission();
+            if( ! ap.canExtractContent() )
             {
-                long startTime = startProcessing("Loading PDF "+pdfFile);
-                if( outputFile == null && pdfFile.length() >4 )
-                {
-                    outputFile = new File( pdfFile.substring( 0, pdfFile.length() -4 ) + ext ).getAbsolutePath();
-                }
-                document = Loader.loadPDF(new File(pdfFile), password);
+                throw new IOException( "You do not have permission to extract text" );
+            }
+
+            stopProcessing("Time for loading: ", startTime);
 
-                AccessPermission ap = document.getCurrentAccessPermission();
-                if( ! ap.canExtractContent() )
+            if( toConsole )
+            {
+                output = new OutputStreamWriter( System.out, encoding );
+            }
+            else
+            {
+                if (toHTML && !STD_ENCODING.equals(encoding))
                 {
-                    throw new IOException( "You do not have permission to extract text" );
+                    encoding = STD_ENCODING;
+                    LOGGER.debug("The encoding parameter is ignored when writing html output.");
                 }
+                // the stripper writes every word and separator on its own, they are encoded and written in chunks
+                output = new ChunkedWriter( target.openChannel( outputFile ), Charset.forName( encoding ), bufferSize );
+            }
+            startTime = startProcessing("Starting text extraction");
 
-                stopProcessing("Time for loading: ", startTime);
+            LOGGER.debug("Writing to " + outputFile);
 
-                if( toConsole )
-                {
-                    output = new OutputStreamWriter( System.out, encoding );
-                }
-                else
-                {
-                    if (toHTML && !STD_ENCODING.equals(encoding))
-                    {
-                        encoding = STD_ENCODING;
-                        LOGGER.debug("The encoding parameter is ignored when writing html output.");
-                    }
-                    output = new OutputStreamWriter( new FileOutputStream( outputFile ), encoding );
-                }
-                startTime = startProcessing("Starting text extraction");
+            // the whole document when no page range is given, as PDFSplit does
+            int firstPage = parsePage(startPage, 1);
+            int lastPage = Math.min(parsePage(endPage, document.getNumberOfPages()), document.getNumberOfPages());
 
-                LOGGER.debug("Writing to " + outputFile);
+            PDFTextStripper stripper;
+            if(toHTML)
+            {
+                // HTML stripper can't work page by page because of startDocument() callback
+                stripper = new PDFText2HTML();
+                stripper.setSortByPosition(sort);
+                stripper.setShouldSeparateByBeads(separateBeads);
+                stripper.setStartPage(firstPage);
+                stripper.setEndPage(lastPage);
+
+                // Extract text for main document:
+                stripper.writeText(document, output);
+            }
+            else
+            {
+                stripper = newStripper(sort, separateBeads, rotationMagic);
 
-                PDFTextStripper stripper;
-                if(toHTML)
+                // Extract text for main document:
+                int workers = WorkerPool.parallelism(parallelism, lastPage - firstPage + 1);
+                if (workers == 1)
                 {
-                    // HTML stripper can't work page by page because of startDocument() callback
-                    stripper = new PDFText2HTML();
-                    stripper.setSortByPosition(sort);
-                    stripper.setShouldSeparateByBeads(separateBeads);
-                    stripper.setStartPage(Integer.parseInt(startPage));
-                    stripper.setEndPage(Integer.parseInt(endPage));
-
-                    // Extract text for main document:
-                    stripper.writeText(document, output);
+                    extractPages(firstPage, lastPage, stripper, document, output, alwaysNext);
                 }
                 else
                 {
-                    if (rotationMagic)
-                    {
-                        stripper = new FilteredTextStripper();
-                    }
-                    else
-                    {
-                        stripper = new PDFTextStripper();
-                    }
-                    stripper.setSortByPosition(sort);
-                    stripper.setShouldSeparateByBeads(separateBeads);
-
-                    // Extract text for main document:
-                    extractPages(Integer.parseInt(startPage), Math.min(Integer.parseInt(endPage), document.getNumberOfPages()),
-                            stripper, document, output, rotationMagic, alwaysNext);
+                    extractPagesInParallel(firstPage, lastPage, stripper, document, source, password, output,
+                            sort, separateBeads, rotationMagic, alwaysNext, workers);
                 }
+            }
 
-                // ... also for any embedded PDFs:
-                PDDocumentCatalog catalog = document.getDocumentCatalog();
-                PDDocumentNameDictionary names = catalog.getNames();
-                if (names != null)
+            // ... also for any embedded PDFs:
+            PDDocumentCatalog catalog = document.getDocumentCatalog();
+            PDDocumentNameDictionary names = catalog.getNames();
+            if (names != null)
+            {
+                PDEmbeddedFilesNameTreeNode embeddedFiles = names.getEmbeddedFiles();
+                if (embeddedFiles != null)
                 {
-                    PDEmbeddedFilesNameTreeNode embeddedFiles = names.getEmbeddedFiles();
-                    if (embeddedFiles != null)
+                    Map<String, PDComplexFileSpecification> embeddedFileNames = embeddedFiles.getNames();
+                    if (embeddedFileNames != null)
                     {
-                        Map<String, PDComplexFileSpecification> embeddedFileNames = embeddedFiles.getNames();
-                        if (embeddedFileNames != null)
+                        List<PDEmbeddedFile> embeddedPDFs = new ArrayList<>();
+                        for (Map.Entry<String, PDComplexFileSpecification> ent : embeddedFileNames.entrySet())
                         {
-                            for (Map.Entry<String, PDComplexFileSpecification> ent : embeddedFileNames.entrySet())
-                            {
-                                LOGGER.debug("Processing embedded file " + ent.getKey() + ":");
+                            LOGGER.debug("Processing embedded file " + ent.getKey() + ":");
 
-                                PDComplexFileSpecification spec = ent.getValue();
-                                PDEmbeddedFile file = spec.getEmbeddedFile();
-                                if (file != null && "application/pdf".equals(file.getSubtype()))
+                            PDComplexFileSpecification spec = ent.getValue();
+                            PDEmbeddedFile file = spec.getEmbeddedFile();
+                            if (file != null && "application/pdf".equals(file.getSubtype()))
+                            {
+                                LOGGER.debug("  is PDF (size=" + file.getSize() + ")");
+                                embeddedPDFs.add(file);
+                            }
+                        }
+                        int workers = toHTML ? 1 : WorkerPool.parallelism(parallelism, embeddedPDFs.size());
+                        if (workers == 1)
+                        {
+                            for (PDEmbeddedFile file : embeddedPDFs)
+                            {
+                                try (EmbeddedPDF embeddedPDF = readEmbeddedPDF(file, embeddedMemoryThreshold);
+                                     PDDocument subDoc = embeddedPDF.load(memoryUsageSetting))
                                 {
-                                    LOGGER.debug("  is PDF (size=" + file.getSize() + ")");
-
-                                    try (InputStream fis = file.createInputStream();
-                                         PDDocument subDoc = Loader.loadPDF(fis))
+                                    if (toHTML)
+                                    {
+                                        // will not really work because of HTML header + footer
+                                        stripper.writeText( subDoc, output );
+                                    }
+                                    else
                                     {
-                                        if (toHTML)
-                                        {
-                                            // will not really work because of HTML header + footer
-                                            stripper.writeText( subDoc, output );
-                                        }
-                                        else
-                                        {
-                                            extractPages(1, subDoc.getNumberOfPages(),
-                                                    stripper, subDoc, output, rotationMagic, alwaysNext);
-                                        }
+                                        extractPages(1, subDoc.getNumberOfPages(), stripper, subDoc, output,
+                                                alwaysNext);
                                     }
                                 }
                             }
                         }
+                        else
+                        {
+                            extractEmbeddedPDFsInParallel(embeddedPDFs, output, sort, separateBeads, rotationMagic,
+                                    alwaysNext, embeddedMemoryThreshold, workers);
+                        }
                     }
                 }
-                stopProcessing("Time for extraction: ", startTime);
             }
-            finally
+            if (output instanceof ChunkedWriter)
             {
-                IOUtils.closeQuietly(output);
-                IOUtils.closeQuietly(document);
-                return "Text extracted to " + outputFile;
+                ChunkedWriter chunkedOutput = (ChunkedWriter) output;
+                chunkedOutput.close();
+                LOGGER.debug("Wrote " + chunkedOutput.getBytesWritten() + " bytes to " + outputFile + " in "
+                        + chunkedOutput.getFlushes() + " flushes");
             }
+            stopProcessing("Time for extraction: ", startTime);
         }
+        finally
+        {
+            IOUtils.closeQuietly(output);
+            IOUtils.closeQuietly(lease);
+        }
+        return "Text extracted to " + outputFile;
     }
 
-    private void extractPages(int startPage, int endPage,
-                              PDFTextStripper stripper, PDDocument document, Writer output,
-                              boolean rotationMagic, boolean alwaysNext) throws IOException
+    /**
+     * @return the page number, or the default one if the parameter is null or blank, as the Mule UI sends an unset
+     * optional parameter.
+     */
+    private static int parsePage(String page, int defaultPage)
     {
-        for (int p = startPage; p <= endPage; ++p)
+        return page == null || page.trim().isEmpty() ? defaultPage : Integer.parseInt(page.trim());
+    }
+
+    private static PDFTextStripper newStripper(boolean sort, boolean separateBeads, boolean rotationMagic) throws IOException
+    {
+        PDFTextStripper stripper;
+        if (rotationMagic)
         {
-            stripper.setStartPage(p);
-            stripper.setEndPage(p);
-            try
+            stripper = new RotationAwareTextStripper();
+        }
+        else
+        {
+            stripper = new PDFTextStripper();
+        }
+        stripper.setSortByPosition(sort);
+        stripper.setShouldSeparateByBeads(separateBeads);
+        return stripper;
+    }
+
+    /**
+     * Splits the pages into as many contiguous ranges as workers. PDFBox documents are not thread safe, so every
+     * extra worker loads its own handle of the document, uses its own stripper and keeps the text of every page in
+     * a buffer, while the calling thread extracts the first range from the document already loaded straight to the
+     * output. The buffers are then written in page order.
+     */
+    private void extractPagesInParallel(int startPage, int endPage, PDFTextStripper stripper, PDDocument document,
+                                        DocumentSource source, String password, Writer output, boolean sort,
+                                        boolean separateBeads, boolean rotationMagic, boolean alwaysNext,
+                                        int workers) throws IOException
+    {
+        int pages = endPage - startPage + 1;
+        String[] texts = new String[pages];
+        ExecutorService pool = WorkerPool.newPool("text", workers - 1);
+        try
+        {
+            List<Future<?>> extracting = new ArrayList<>();
+            for (int w = 1; w < workers; w++)
             {
-                if (rotationMagic)
+                int first = startPage + w * pages / workers;
+                int last = startPage + (w + 1) * pages / workers - 1;
+                extracting.add(pool.submit(() ->
                 {
-                    PDPage page = document.getPage(p - 1);
-                    int rotation = page.getRotation();
-                    page.setRotation(0);
-                    AngleCollector angleCollector = new AngleCollector();
-                    angleCollector.setStartPage(p);
-                    angleCollector.setEndPage(p);
-                    angleCollector.writeText(document, new NullWriter());
-                    // rotation magic
-                    for (int angle : angleCollector.getAngles())
+                    try (PDDocument handle = source.load(password, memoryUsageSetting))
                     {
-                        // prepend a transformation
-                        // (we could skip these parts for angle 0, but it doesn't matter much)
-                        try (PDPageContentStream cs = new PDPageContentStream(document, page,
-                                PDPageContentStream.AppendMode.PREPEND, false))
+                        PDFTextStripper pageStripper = newStripper(sort, separateBeads, rotationMagic);
+                        for (int p = first; p <= last; p++)
                         {
-                            cs.transform(Matrix.getRotateInstance(-Math.toRadians(angle), 0, 0));
+                            StringWriter text = new StringWriter();
+                            extractPages(p, p, pageStripper, handle, text, alwaysNext);
+                            texts[p - startPage] = text.toString();
                         }
+                    }
+                    return null;
+                }));
+            }
+            extractPages(startPage, startPage + pages / workers - 1, stripper, document, output, alwaysNext);
+            WorkerPool.awaitAll(extracting);
+        }
+        finally
+        {
+            pool.shutdownNow();
+            // the workers close their own handles, wait for them to be closed
+            WorkerPool.awaitTermination(pool);
+        }
+        for (int i = pages / workers; i < pages; i++)
+        {
+            output.write(texts[i]);
+        }
+    }
 
-                        stripper.writeText(document, output);
+    /**
+     * Extracts the embedded PDFs on a pool of workers, every worker extracting a whole document to a buffer. The
+     * embedded files belong to the main document, which is not thread safe, so the calling thread reads them and
+     * the workers only parse their private copy. The buffers are written in the order of the documents as soon as
+     * they are complete, and at most as many documents as workers are read ahead of the one being written.
+     */
+    private void extractEmbeddedPDFsInParallel(List<PDEmbeddedFile> embeddedPDFs, Writer output, boolean sort,
+                                               boolean separateBeads, boolean rotationMagic, boolean alwaysNext,
+                                               long embeddedMemoryThreshold, int workers) throws IOException
+    {
+        ExecutorService pool = WorkerPool.newPool("embedded", workers);
+        Deque<EmbeddedPDF> read = new ArrayDeque<>();
+        try
+        {
+            Deque<Future<String>> extracting = new ArrayDeque<>();
+            int next = 0;
+            while (next < embeddedPDFs.size() || !extracting.isEmpty())
+            {
+                while (next < embeddedPDFs.size() && extracting.size() < workers)
+                {
+                    EmbeddedPDF embeddedPDF = readEmbeddedPDF(embeddedPDFs.get(next++), embeddedMemoryThreshold);
+                    read.add(embeddedPDF);
+                    extracting.add(pool.submit(() ->
+                    {
+                        try (PDDocument subDoc = embeddedPDF.load(memoryUsageSetting))
+                        {
+                            StringWriter text = new StringWriter();
+                            extractPages(1, subDoc.getNumberOfPages(),
+                                    newStripper(sort, separateBeads, rotationMagic), subDoc, text, alwaysNext);
+                            return text.toString();
+                        }
+                    }));
+                }
+                output.write(WorkerPool.await(extracting.poll()));
+                read.poll().close();
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+            // the scratch files are deleted once no worker parses them anymore
+            WorkerPool.awaitTermination(pool);
+            read.forEach(EmbeddedPDF::close);
+        }
+    }
 
-                        // remove prepended transformation
-                        ((COSArray) page.getCOSObject().getItem(COSName.CONTENTS)).remove(0);
-                    }
-                    page.setRotation(rotation);
+    /**
+     * Reads the data of an embedded PDF. Documents up to the threshold are read to memory, bigger ones (or ones of
+     * unknown size exceeding it) are copied to a scratch file, so that the raw document doesn't stay on the heap
+     * while it is parsed.
+     */
+    private EmbeddedPDF readEmbeddedPDF(PDEmbeddedFile file, long embeddedMemoryThreshold) throws IOException
+    {
+        try (InputStream input = file.createInputStream())
+        {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            if (file.getSize() <= embeddedMemoryThreshold)
+            {
+                byte[] buffer = new byte[8192];
+                int read;
+                while (head.size() <= embeddedMemoryThreshold && (read = input.read(buffer)) != -1)
+                {
+                    head.write(buffer, 0, read);
                 }
-                else
+                if (head.size() <= embeddedMemoryThreshold)
+                {
+                    return new EmbeddedPDF(head.toByteArray(), null);
+                }
+            }
+            File scratchFile = File.createTempFile("PDFBox", ".pdf", memoryUsageSetting.getTempDir());
+            try
+            {
+                try (OutputStream out = new FileOutputStream(scratchFile))
                 {
-                    stripper.writeText(document, output);
+                    head.writeTo(out);
+                    IOUtils.copy(input, out);
                 }
+                return new EmbeddedPDF(null, scratchFile);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                deleteScratchFile(scratchFile);
+                throw e;
+            }
+        }
+    }
+
+    private static void deleteScratchFile(File scratchFile)
+    {
+        if (!scratchFile.delete())
+        {
+            LOGGER.warn("Could not delete the scratch file " + scratchFile);
+        }
+    }
+
+    /**
+     * The data of an embedded PDF, in memory or in a scratch file which is deleted when the data is closed.
+     */
+    private static final class EmbeddedPDF implements Closeable
+    {
+        private final byte[] data;
+        private final File scratchFile;
+
+        private EmbeddedPDF(byte[] data, File scratchFile)
+        {
+            this.data = data;
+            this.scratchFile = scratchFile;
+        }
+
+        /**
+         * @return a new document parsed from the data, to be closed by the caller.
+         */
+        private PDDocument load(MemoryUsageSetting memoryUsageSetting) throws IOException
+        {
+            if (scratchFile == null)
+            {
+                return Loader.loadPDF(data, "", null, null, memoryUsageSetting);
+            }
+            LOGGER.debug("  parsing from scratch file " + scratchFile + " (size=" + scratchFile.length() + ")");
+            return Loader.loadPDF(scratchFile, "", null, null, memoryUsageSetting);
+        }
+
+        @Override
+        public void close()
+        {
+            if (scratchFile != null)
+            {
+                deleteScratchFile(scratchFile);
+            }
+        }
+    }
+
+    private void extractPages(int startPage, int endPage,
+                              PDFTextStripper stripper, PDDocument document, Writer output,
+                              boolean alwaysNext) throws IOException
+    {
+        for (int p = startPage; p <= endPage; ++p)
+        {
+            stripper.setStartPage(p);
+            stripper.setEndPage(p);
+            try
+            {
+                stripper.writeText(document, output);
             }
             catch (IOException ex)
             {
@@ -269,6 +517,9 @@ public final class ExtractText
                 + "                                (slower, and ignored when -html)\n"
                 + "  -startPage <number>         : The first page to start extraction (1 based)\n"
                 + "  -endPage <number>           : The last page to extract (1 based, inclusive)\n"
+                + "  -parallelism <number>       : Number of workers extracting pages, then embedded\n"
+                + "                                PDFs, at the same time\n"
+                + "                                (default 1, 0 for one per core, ignored when -html)\n"
                 + "  <inputfile>                 : The PDF document to use\n"
                 + "  [output-text-file]          : The file to write the text to";
 
@@ -277,73 +528,117 @@ public final class ExtractText
 }
 
 /**
- * Collect all angles while doing text extraction. Angles are in degrees and rounded to the closest
- * integer (to avoid slight differences from floating point arithmetic resulting in similarly
- * angled glyphs being treated separately). This class must be constructed for each page so that the
- * angle set is initialized.
+ * TextStripper extracting rotated and skewed text in a single pass over the page. The glyphs are grouped by angle,
+ * in degrees rounded to the closest integer (to avoid slight differences from floating point arithmetic resulting
+ * in similarly angled glyphs being treated separately), and turned back to 0. Once the page has been parsed, every
+ * group is laid out and written on its own by increasing angle, as if the page had been extracted once per angle
+ * with only the glyphs of that angle.
+ * <p>
+ * The text is turned in the positions given to the layout, not in the document: the rotation of the page is
+ * ignored the same way, so the document isn't modified and can be shared with other operations.
  */
-class AngleCollector extends PDFTextStripper
+class RotationAwareTextStripper extends PDFTextStripper
 {
-    private final Set<Integer> angles = new TreeSet<>();
+    private final Map<Integer, List<TextPosition>> glyphsByAngle = new TreeMap<>();
+    private final Map<String, TreeMap<Float, TreeSet<Float>>> shownGlyphs = new HashMap<>();
+    private boolean suppressDuplicates;
+    private float originX;
+    private float originY;
 
-    AngleCollector() throws IOException
+    RotationAwareTextStripper() throws IOException
     {
+        // overlapping duplicates are suppressed per angle instead of per page, see isDuplicate()
+        suppressDuplicates = super.getSuppressDuplicateOverlappingText();
+        super.setSuppressDuplicateOverlappingText(false);
     }
 
-    Set<Integer> getAngles()
+    @Override
+    public boolean getSuppressDuplicateOverlappingText()
     {
-        return angles;
+        return suppressDuplicates;
     }
 
     @Override
-    protected void processTextPosition(TextPosition text)
+    public void setSuppressDuplicateOverlappingText(boolean suppressDuplicates)
     {
-        int angle = ExtractText.getAngle(text);
-        angle = (angle + 360) % 360;
-        angles.add(angle);
+        this.suppressDuplicates = suppressDuplicates;
     }
-}
 
-/**
- * TextStripper that only processes glyphs that have angle 0.
- */
-class FilteredTextStripper extends PDFTextStripper
-{
-    FilteredTextStripper() throws IOException
+    @Override
+    public void processPage(PDPage page) throws IOException
     {
+        // text positions are relative to the crop box, the text is turned around the origin of the page
+        PDRectangle cropBox = page.getCropBox();
+        originX = -cropBox.getLowerLeftX();
+        originY = -cropBox.getLowerLeftY();
+        super.processPage(page);
     }
 
     @Override
     protected void processTextPosition(TextPosition text)
     {
-        int angle = ExtractText.getAngle(text);
-        if (angle == 0)
+        int angle = (ExtractText.getAngle(text) + 360) % 360;
+        if (angle != 0 || text.getRotation() != 0)
         {
-            super.processTextPosition(text);
+            text = turn(text, angle);
         }
+        glyphsByAngle.computeIfAbsent(angle, a -> new ArrayList<>()).add(text);
     }
-}
 
-/**
- * Dummy output.
- */
-class NullWriter extends Writer
-{
     @Override
-    public void write(char[] cbuf, int off, int len) throws IOException
+    protected void writePage() throws IOException
     {
-        // do nothing
+        for (List<TextPosition> glyphs : glyphsByAngle.values())
+        {
+            for (List<TextPosition> article : charactersByArticle)
+            {
+                article.clear();
+            }
+            shownGlyphs.clear();
+            for (TextPosition text : glyphs)
+            {
+                if (!suppressDuplicates || !isDuplicate(text))
+                {
+                    super.processTextPosition(text);
+                }
+            }
+            super.writePage();
+        }
+        glyphsByAngle.clear();
     }
 
-    @Override
-    public void flush() throws IOException
+    private TextPosition turn(TextPosition text, int angle)
     {
-        // do nothing
+        Matrix rotation = Matrix.getTranslateInstance(-originX, -originY)
+                .multiply(Matrix.getRotateInstance(-Math.toRadians(angle), 0, 0))
+                .multiply(Matrix.getTranslateInstance(originX, originY));
+        Matrix textMatrix = text.getTextMatrix().multiply(rotation);
+        Point2D.Float end = rotation.transformPoint(text.getEndX(), text.getEndY());
+        return new TextPosition(0, text.getPageWidth(), text.getPageHeight(), textMatrix,
+                end.x, end.y, text.getHeight(), end.x - textMatrix.getTranslateX(), text.getWidthOfSpace(),
+                text.getUnicode(), text.getCharacterCodes(), text.getFont(), text.getFontSize(),
+                (int) text.getFontSizeInPt());
     }
 
-    @Override
-    public void close() throws IOException
+    /**
+     * Same test as PDFTextStripper, limited to the glyphs of the angle being written: a glyph is a duplicate if the
+     * same text has already been shown at nearly the same position.
+     */
+    private boolean isDuplicate(TextPosition text)
     {
-        // do nothing
+        String unicode = text.getUnicode();
+        float x = text.getX();
+        float y = text.getY();
+        TreeMap<Float, TreeSet<Float>> sameGlyphs = shownGlyphs.computeIfAbsent(unicode, u -> new TreeMap<>());
+        float tolerance = text.getWidth() / unicode.length() / 3.0f;
+        for (TreeSet<Float> ys : sameGlyphs.subMap(x - tolerance, x + tolerance).values())
+        {
+            if (!ys.subSet(y - tolerance, y + tolerance).isEmpty())
+            {
+                return true;
+            }
+        }
+        sameGlyphs.computeIfAbsent(x, k -> new TreeSet<>()).add(y);
+        return false;
     }
 }
@@ -3,10 +3,14 @@ package org.mule.extension.apache.pdfbox.internal.operations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.Overlay;
 import org.apache.pdfbox.multipdf.Overlay.Position;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -17,6 +21,8 @@ import org.mule.runtime.extension.api.annotation.source.EmitsResponse;
 import static org.mule.runtime.extension.api.annotation.param.MediaType.*;
 import org.mule.extension.apache.pdfbox.api.enums.PagesBehavior;
 import org.mule.extension.apache.pdfbox.api.enums.OverlayPosition;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentSource;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
 
 @Alias("OverlayPDF")
 @EmitsResponse
@@ -24,25 +30,42 @@ import org.mule.extension.apache.pdfbox.api.enums.OverlayPosition;
 public class OverlayPDF{
     private static final Logger LOGGER = LoggerFactory.getLogger(OverlayPDF.class);
 
-    public OverlayPDF(){}
+    private final MemoryUsageSetting memoryUsageSetting;
+
+    public OverlayPDF(){
+        this(MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * @param memoryUsageSetting where to keep the data of the documents loaded by the operation.
+     */
+    public OverlayPDF(MemoryUsageSetting memoryUsageSetting){
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
 
     public String OverlayPDF(String inputFile, String outputFile, String overlayFile, OverlayPosition position, PagesBehavior pagesBehavior, String page) throws IOException{
+        DocumentSource source = inputFile == null ? null : DocumentSource.fromFile(inputFile);
+        return OverlayPDF(source, OutputTarget.files(), outputFile, overlayFile, position, pagesBehavior, page);
+    }
+
+    public String OverlayPDF(DocumentSource source, OutputTarget target, String outputFile, String overlayFile, OverlayPosition position, PagesBehavior pagesBehavior, String page) throws IOException{
         // suppress the Dock icon on OS X
         System.setProperty("apple.awt.UIElement", "true");
 
-        LOGGER.debug("Input file: " + inputFile + " \noutputFile: " + outputFile
+        LOGGER.debug("Input: " + source + " \noutputFile: " + outputFile
                      + "\noverlayFile: "+ overlayFile
                      + "\nposition: "+ position.getPosition()
                      + "\npage behavior: " + pagesBehavior.getPagesBehavior()
                      + "\npage: " + page);
 
-        Overlay overlayer = new Overlay();
-        Map<Integer, String> specificPageOverlayFile = new HashMap<>();
-
-        if (inputFile != null)
+        if (overlayFile == null || source == null || outputFile == null)
         {
-            overlayer.setInputFile(inputFile);
+            return usage();
         }
+
+        Overlay overlayer = new Overlay();
+        Map<Integer, PDDocument> specificPageOverlay = new HashMap<>();
+
         if (position.getPosition() != null)
         {
             if (Position.FOREGROUND.toString().equalsIgnoreCase(position.getPosition()))
@@ -59,48 +82,39 @@ public class OverlayPDF{
             }
         }
 
-        if (pagesBehavior.getPagesBehavior() == "ODD")
+        // the overlay file is loaded here rather than by Overlay itself so that it follows the memory policy,
+        // the input document is closed once saved
+        try (PDDocument overlay = Loader.loadPDF(new File(overlayFile), null, null, null, memoryUsageSetting);
+             PDDocument input = source.load(null, memoryUsageSetting);
+             OutputStream output = target.open(outputFile))
         {
-            overlayer.setOddPageOverlayFile(overlayFile);
-        }
-        else if (pagesBehavior.getPagesBehavior() == "EVEN")
-        {
-            overlayer.setEvenPageOverlayFile(overlayFile);
-        }
-        else if (pagesBehavior.getPagesBehavior() == "FIRST")
-        {
-            overlayer.setFirstPageOverlayFile(overlayFile);
-        }
-        else if (pagesBehavior.getPagesBehavior() == "LAST")
-        {
-            overlayer.setLastPageOverlayFile(overlayFile);
-        }
-        else if (pagesBehavior.getPagesBehavior().equals("ALL"))
-        {
-            overlayer.setAllPagesOverlayFile(overlayFile);
-        }
-        else if (page != null)
-        {
-            specificPageOverlayFile.put(Integer.parseInt(page), overlayFile);
-        }
-
-        if (overlayer.getDefaultOverlayFile() == null)
-        {
-            overlayer.setDefaultOverlayFile(null);
-        }
-        else
-        {
-            return usage();
-        }
-
-        if (overlayer.getInputFile() == null || outputFile == null)
-        {
-            usage();
-        }
+            if (pagesBehavior.getPagesBehavior() == "ODD")
+            {
+                overlayer.setOddPageOverlayPDF(overlay);
+            }
+            else if (pagesBehavior.getPagesBehavior() == "EVEN")
+            {
+                overlayer.setEvenPageOverlayPDF(overlay);
+            }
+            else if (pagesBehavior.getPagesBehavior() == "FIRST")
+            {
+                overlayer.setFirstPageOverlayPDF(overlay);
+            }
+            else if (pagesBehavior.getPagesBehavior() == "LAST")
+            {
+                overlayer.setLastPageOverlayPDF(overlay);
+            }
+            else if (pagesBehavior.getPagesBehavior().equals("ALL"))
+            {
+                overlayer.setAllPagesOverlayPDF(overlay);
+            }
+            else if (page != null)
+            {
+                specificPageOverlay.put(Integer.parseInt(page), overlay);
+            }
 
-        try (PDDocument result = overlayer.overlay(specificPageOverlayFile))
-        {
-            result.save(outputFile);
+            overlayer.setInputPDF(input);
+            overlayer.overlayDocuments(specificPageOverlay).save(output);
         }
         catch (IOException e)
         {
@@ -1,9 +1,16 @@
 package org.mule.extension.apache.pdfbox.internal.operations;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentSource;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
+import org.mule.extension.apache.pdfbox.internal.utils.ResourceDeduplicator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,36 +18,122 @@ public final class PDFMerger
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(PDFMerger.class);
 
+    private final MemoryUsageSetting memoryUsageSetting;
+
     public PDFMerger()
     {
+        this(MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * @param memoryUsageSetting where to keep the data of the documents loaded or created by the operation.
+     */
+    public PDFMerger(MemoryUsageSetting memoryUsageSetting)
+    {
+        this.memoryUsageSetting = memoryUsageSetting;
     }
 
 
-    public String PDFMerger( String[] inputFiles,  String outputFile) throws IOException
+    public String PDFMerger( String[] inputFiles,  String outputFile, boolean streaming) throws IOException
     {
-        System.setProperty("apple.awt.UIElement", "true");
+        List<DocumentSource> sources = new ArrayList<>();
+        for (String inputFile : inputFiles)
+        {
+            sources.add(DocumentSource.fromFile(inputFile));
+        }
+        return PDFMerger(sources, OutputTarget.files(), outputFile, streaming);
+    }
 
-        int firstFileArgPos = 0;
+    /**
+     * @param streaming when true the sources are appended one at a time and each of them is closed once its pages
+     *                  have been imported, instead of keeping all of them open until the result is saved.
+     */
+    public String PDFMerger( List<DocumentSource> sources, OutputTarget target, String outputFile, boolean streaming) throws IOException
+    {
+        System.setProperty("apple.awt.UIElement", "true");
 
-        if ( inputFiles.length - firstFileArgPos < 2 )
+        if ( sources.size() < 2 )
         {
             LOGGER.debug("Must set at least two files to merge");
             return usage();
         }
 
+        if (streaming)
+        {
+            streamingMerge(sources, target, outputFile);
+            return "Merged " + outputFile + " file";
+        }
+
         PDFMergerUtility merger = new PDFMergerUtility();
-        for( int i=firstFileArgPos; i<inputFiles.length; i++ )
+        for (DocumentSource source : sources)
         {
-            String sourceFileName = inputFiles[i];
-            merger.addSource(sourceFileName);
+            if (source.getPath() != null)
+            {
+                merger.addSource(source.getPath());
+            }
+            else
+            {
+                merger.addSource(source.openStream());
+            }
+        }
+        try (OutputStream output = target.open(outputFile))
+        {
+            merger.setDestinationStream(output);
+            merger.mergeDocuments(memoryUsageSetting);
         }
-        ;
-        merger.setDestinationFileName(outputFile);
-        merger.mergeDocuments(MemoryUsageSetting.setupMainMemoryOnly());
 
         return "Merged " + outputFile + " file";
     }
 
+    /**
+     * The result is only opened once all the sources have been merged, and it is removed if it can't be saved
+     * completely, so that a failed merge leaves no truncated PDF behind.
+     */
+    private void streamingMerge(List<DocumentSource> sources, OutputTarget target, String outputFile)
+            throws IOException
+    {
+        long startTime = System.nanoTime();
+        // a single merger so that the numbering of the renamed form fields goes on from one source to the next
+        PDFMergerUtility merger = new PDFMergerUtility();
+        ResourceDeduplicator deduplicator = new ResourceDeduplicator();
+        try (PDDocument destination = new PDDocument(memoryUsageSetting))
+        {
+            for (DocumentSource source : sources)
+            {
+                int firstPage = destination.getNumberOfPages();
+                // the pages are deep copied into the destination, so the source can be closed right away
+                try (PDDocument document = source.load(null, memoryUsageSetting))
+                {
+                    merger.appendDocument(destination, document);
+                }
+                for (int i = firstPage; i < destination.getNumberOfPages(); i++)
+                {
+                    deduplicator.deduplicate(destination.getPage(i));
+                }
+            }
+            OutputStream output = target.open(outputFile);
+            try (OutputStream result = output)
+            {
+                destination.save(result);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                try
+                {
+                    target.discard(outputFile);
+                }
+                catch (IOException discardFailure)
+                {
+                    e.addSuppressed(discardFailure);
+                }
+                throw e;
+            }
+            LOGGER.debug("Merged " + sources.size() + " documents, " + destination.getNumberOfPages() + " pages, "
+                    + deduplicator.getDuplicates() + " duplicated fonts and images shared in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms");
+        }
+    }
+
     private String usage()
     {
         String message = "Usage: PDFMerger "
@@ -3,35 +3,49 @@ package org.mule.extension.apache.pdfbox.internal.operations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.multipdf.Splitter;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentSource;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
+import org.mule.extension.apache.pdfbox.internal.utils.WorkerPool;
 
 public final class PDFSplit
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(PDFSplit.class);
 
+    private final MemoryUsageSetting memoryUsageSetting;
+    private String[] fileNames;
+
     public PDFSplit()
     {
+        this(MemoryUsageSetting.setupMainMemoryOnly());
+    }
 
+    /**
+     * @param memoryUsageSetting where to keep the data of the documents loaded or created by the operation.
+     */
+    public PDFSplit(MemoryUsageSetting memoryUsageSetting)
+    {
+        this.memoryUsageSetting = memoryUsageSetting;
     }
 
-    public String PDFSplit( String inputFile, String outputPrefix, String startPage, String endPage, String split, String password) throws IOException
+    public String PDFSplit( String inputFile, String outputPrefix, String startPage, String endPage, String split, String password, int parallelism) throws IOException
     {
         LOGGER.debug("startPage: " + startPage +
                     "\nendPage: " + endPage +
                     "\nsplit: " + split+
-                    "\npassword: " + password
+                    "\npassword: " + password +
+                    "\nparallelism: " + parallelism
         );
-        @SuppressWarnings({"squid:S2068"})
-        Splitter splitter = new Splitter();
-
-        System.setProperty("apple.awt.UIElement", "true");
-
         if( inputFile == null )
         {
            return usage();
@@ -42,70 +56,190 @@ public final class PDFSplit
             {
                 outputPrefix = inputFile.substring(0, inputFile.lastIndexOf('.'));
             }
-            PDDocument document = null;
-            List<PDDocument> documents = null;
-            try
+            return PDFSplit(DocumentSource.fromFile(inputFile), OutputTarget.files(), outputPrefix, startPage, endPage, split, password, parallelism);
+        }
+    }
+
+    /**
+     * @param parallelism number of parts saved at the same time, every worker splits a contiguous range of parts
+     *                    from its own handle of the document. A value lower than 1 means one worker per core.
+     */
+    public String PDFSplit( DocumentSource source, OutputTarget target, String outputPrefix, String startPage, String endPage, String split, String password, int parallelism) throws IOException
+    {
+        System.setProperty("apple.awt.UIElement", "true");
+
+        try (PDDocument document = source.load(password, memoryUsageSetting))
+        {
+            int numberOfPages = document.getNumberOfPages();
+            LOGGER.debug("numberOfPages: " + numberOfPages);
+
+            // same defaults as the PDFBox command line: one page per part, unless a page range is given
+            int firstPage = startPage == null ? 1 : Integer.parseInt( startPage );
+            int lastPage = endPage == null ? numberOfPages : Math.min(Integer.parseInt( endPage ), numberOfPages);
+            int splitLength;
+            if (split != null)
+            {
+                splitLength = Integer.parseInt( split );
+            }
+            else if (endPage != null)
             {
-                document = Loader.loadPDF(new File(inputFile), password);
+                splitLength = Integer.parseInt( endPage );
+            }
+            else if (startPage != null)
+            {
+                splitLength = numberOfPages;
+            }
+            else
+            {
+                splitLength = 1;
+            }
 
-                int numberOfPages = document.getNumberOfPages();
-                LOGGER.debug("numberOfPages: " + numberOfPages);
-                boolean startEndPageSet = false;
-                if (startPage != null)
-                {
-                    splitter.setStartPage(Integer.parseInt( startPage ));
-                    startEndPageSet = true;
-                    if (split == null)
-                    {
-                        splitter.setSplitAtPage(numberOfPages);
-                    }
-                }
-                if (endPage != null)
-                {
-                    splitter.setEndPage(Integer.parseInt( endPage ));
-                    startEndPageSet = true;
-                    if (split == null)
-                    {
-                        splitter.setSplitAtPage(Integer.parseInt( endPage ));
-                    }
-                }
-                if (split != null)
-                {
-                    splitter.setSplitAtPage( Integer.parseInt( split ) );
-                }
-                else
-                {
-                    if (!startEndPageSet)
-                    {
-                        splitter.setSplitAtPage(1);
-                    }
-                }
+            int parts = lastPage < firstPage || splitLength < 1 ? 0 : (lastPage - firstPage) / splitLength + 1;
+            this.fileNames = new String[parts];
+            for (int i = 0; i < parts; i++)
+            {
+                fileNames[i] = outputPrefix + "-" + (i + 1) + ".pdf";
+            }
 
-                documents = splitter.split( document );
-                LOGGER.debug("documents.size(): " + documents.size());
-                for( int i=0; i<documents.size(); i++ )
+            int workers = WorkerPool.parallelism(parallelism, parts);
+            long startTime = System.nanoTime();
+            if (workers == 1)
+            {
+                splitParts(document, target, firstPage, lastPage, splitLength, 0);
+            }
+            else
+            {
+                splitInParallel(document, source, password, target, firstPage, lastPage, splitLength, workers);
+            }
+            LOGGER.debug("Saved " + parts + " parts with " + workers + " workers in "
+                    + (System.nanoTime() - startTime) / 1000000 + " ms");
+        }
+        return "File " + source + " split";
+    }
+
+    /**
+     * @return the names of the parts written by the last split, in page order.
+     */
+    public List<String> getFileNames()
+    {
+        return Arrays.asList(fileNames);
+    }
+
+    /**
+     * Splits the parts into as many contiguous ranges as workers. Parts share the objects of the document they are
+     * imported from, and PDFBox documents are not thread safe, so every extra worker loads its own handle of the
+     * document while the calling thread splits the first range from the one already loaded.
+     */
+    private void splitInParallel(PDDocument document, DocumentSource source, String password, OutputTarget target,
+                                 int firstPage, int lastPage, int splitLength, int workers) throws IOException
+    {
+        int parts = fileNames.length;
+        ExecutorService pool = WorkerPool.newPool("split", workers - 1);
+        try
+        {
+            List<Future<?>> splitting = new ArrayList<>();
+            for (int w = 1; w < workers; w++)
+            {
+                int firstPart = w * parts / workers;
+                int endPart = (w + 1) * parts / workers;
+                splitting.add(pool.submit(() ->
                 {
-                    try (PDDocument doc = documents.get(i))
+                    try (PDDocument handle = source.load(password, memoryUsageSetting))
                     {
-                        doc.save(outputPrefix + "-" + (i + 1) + ".pdf");
+                        splitParts(handle, target, firstPage + firstPart * splitLength,
+                                Math.min(lastPage, firstPage + endPart * splitLength - 1), splitLength, firstPart);
                     }
-                }
+                    return null;
+                }));
+            }
+            splitParts(document, target, firstPage,
+                    Math.min(lastPage, firstPage + parts / workers * splitLength - 1), splitLength, 0);
+            WorkerPool.awaitAll(splitting);
+        }
+        finally
+        {
+            pool.shutdownNow();
+            // no part is written after a failed split returns
+            WorkerPool.awaitTermination(pool);
+        }
+    }
+
+    private void splitParts(PDDocument document, OutputTarget target, int firstPage, int lastPage, int splitLength,
+                            int firstPart) throws IOException
+    {
+        @SuppressWarnings({"squid:S2068"})
+        PartWriter splitter = new PartWriter(target, fileNames, firstPart);
+        splitter.setMemoryUsageSetting(memoryUsageSetting);
+        splitter.setStartPage(firstPage);
+        splitter.setEndPage(lastPage);
+        splitter.setSplitAtPage(splitLength);
+        try
+        {
+            // every part is saved and closed as soon as it is complete, only the last one is left to save here
+            splitter.split( document );
+            splitter.savePart();
+        }
+        finally
+        {
+            splitter.closePart();
+        }
+    }
+
+    /**
+     * Splitter that saves every part as soon as its last page has been imported, instead of keeping all of them
+     * open until the whole document has been split. Splitter still lists the parts it created, but they are
+     * closed by then, so their buffers and scratch files are already released.
+     */
+    private static final class PartWriter extends Splitter
+    {
+        private final OutputTarget target;
+        private final String[] fileNames;
+        private PDDocument part;
+        private int nextPart;
+
+        private PartWriter(OutputTarget target, String[] fileNames, int firstPart)
+        {
+            this.target = target;
+            this.fileNames = fileNames;
+            this.nextPart = firstPart;
+        }
+
+        @Override
+        protected PDDocument createNewDocument() throws IOException
+        {
+            // a new part is only started once the previous one is complete
+            savePart();
+            part = super.createNewDocument();
+            return part;
+        }
 
+        /**
+         * Saves and closes the current part, if any.
+         */
+        private void savePart() throws IOException
+        {
+            if (part == null)
+            {
+                return;
             }
-            finally
+            try (PDDocument doc = part;
+                 OutputStream output = target.open(fileNames[nextPart++]))
             {
-                LOGGER.debug("closing documents");
-                if( document != null )
-                {
-                    document.close();
-                }
-                for( int i=0; documents != null && i<documents.size(); i++ )
-                {
-                    PDDocument doc = documents.get(i);
-                    doc.close();
-                }
+                part = null;
+                doc.save(output);
+            }
+        }
+
+        /**
+         * Closes the current part without saving it, when the split failed.
+         */
+        private void closePart() throws IOException
+        {
+            if (part != null)
+            {
+                part.close();
+                part = null;
             }
-            return "File " + inputFile + " split";
         }
     }
 
@@ -117,6 +251,7 @@ public final class PDFSplit
                 + "  -split     <integer>   : split after this many pages (default 1, if startPage and endPage are unset)\n"
                 + "  -startPage <integer>   : start page\n"
                 + "  -endPage   <integer>   : end page\n"
+                + "  -parallelism <integer> : number of parts saved at the same time (default 1, 0 for one per core)\n"
                 + "  -outputPrefix <prefix> : Filename prefix for split files\n"
                 + "  <inputfile>            : The PDF document to use\n";
 
@@ -1,6 +1,6 @@
 package org.mule.extension.apache.pdfbox.internal.operations;
 
-import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
@@ -9,6 +9,11 @@ import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.mule.extension.apache.pdfbox.api.exceptions.InvalidColorException;
 import org.mule.extension.apache.pdfbox.api.exceptions.NoWriterFoundException;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentCache;
+import org.mule.extension.apache.pdfbox.internal.utils.DocumentSource;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
+import org.mule.extension.apache.pdfbox.internal.utils.WorkerPool;
+import org.mule.extension.apache.pdfbox.internal.utils.imageio.ImageWriterCache;
 import org.mule.extension.apache.pdfbox.internal.utils.imageio.imageIOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,24 +21,83 @@ import org.slf4j.LoggerFactory;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class PDFToImage
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(PDFToImage.class);
 
+    private OutputTarget target;
+    private String outputPrefix;
+    private String imageFormat;
+    private ImageType imageType;
+    private int dpi;
+    private float quality;
+    private boolean subsampling;
+    private float[] cropBox;
+    private int firstPageIndex;
+    private String[] fileNames;
+    private BlockingQueue<RenderedPage> renderedPages;
+    private AtomicBoolean encodingFailed;
+
+    /**
+     * Marker put in the queue once per encoder when all the pages have been rendered.
+     */
+    private static final RenderedPage END_OF_PAGES = new RenderedPage(-1, null);
+
+    private final MemoryUsageSetting memoryUsageSetting;
+    private final DocumentCache documentCache;
+
     public PDFToImage()
     {
+        this(MemoryUsageSetting.setupMainMemoryOnly(), DocumentCache.disabled());
+    }
+
+    /**
+     * @param memoryUsageSetting where to keep the data of the documents loaded by the operation.
+     * @param documentCache the parsed documents shared with the other operations.
+     */
+    public PDFToImage(MemoryUsageSetting memoryUsageSetting, DocumentCache documentCache)
+    {
+        this.memoryUsageSetting = memoryUsageSetting;
+        this.documentCache = documentCache;
     }
 
     public String PDFToImage(String pdfFile, String outputPrefix, int startPage, int endPage, String password,
                             String imageFormat, String color, int dpi, float quality, float cropBoxLowerLeftX,
-                            float cropBoxLowerLeftY, float cropBoxUpperRightX, float cropBoxUpperRightY, boolean subsampling) throws IOException, NoWriterFoundException, InvalidColorException {
+                            float cropBoxLowerLeftY, float cropBoxUpperRightX, float cropBoxUpperRightY, boolean subsampling,
+                            int parallelism, int encoderThreads, int queueSize) throws IOException, NoWriterFoundException, InvalidColorException {
+        if( pdfFile == null )
+        {
+            return usage();
+        }
+        if(outputPrefix == null)
+        {
+            outputPrefix = pdfFile.substring( 0, pdfFile.lastIndexOf( '.' ));
+        }
+        return PDFToImage(DocumentSource.fromFile(pdfFile), OutputTarget.files(), outputPrefix, startPage, endPage, password,
+                imageFormat, color, dpi, quality, cropBoxLowerLeftX, cropBoxLowerLeftY, cropBoxUpperRightX,
+                cropBoxUpperRightY, subsampling, parallelism, encoderThreads, queueSize);
+    }
+
+    public String PDFToImage(DocumentSource source, OutputTarget target, String outputPrefix, int startPage, int endPage, String password,
+                            String imageFormat, String color, int dpi, float quality, float cropBoxLowerLeftX,
+                            float cropBoxLowerLeftY, float cropBoxUpperRightX, float cropBoxUpperRightY, boolean subsampling,
+                            int parallelism, int encoderThreads, int queueSize) throws IOException, NoWriterFoundException, InvalidColorException {
         // suppress the Dock icon on OS X
         System.setProperty("apple.awt.UIElement", "true");
-        String fileName = new String();
-        String message = new String();
+        StringBuilder message = new StringBuilder();
         if(endPage==0){
             endPage = Integer.MAX_VALUE;
         }
@@ -46,94 +110,334 @@ public final class PDFToImage
             dpi = 96;
         }
 
-        if( pdfFile == null )
+        if (quality < 0)
         {
-            return usage();
+            quality = "png".equals(imageFormat) ? 0f : 1f;
         }
-        else
+
+        //if a CropBox has been specified, update the CropBox:
+        //changeCropBoxes(PDDocument document,float a, float b, float c,float d)
+        this.cropBox = null;
+        if (Float.compare(cropBoxLowerLeftX, 0) !=0 ||
+                Float.compare(cropBoxLowerLeftY, 0) !=0 ||
+                Float.compare(cropBoxUpperRightX, 0) !=0 ||
+                Float.compare(cropBoxUpperRightY, 0) !=0 )
         {
-            if(outputPrefix == null)
+            this.cropBox = new float[] { cropBoxLowerLeftX, cropBoxLowerLeftY,
+                    cropBoxUpperRightX, cropBoxUpperRightY };
+        }
+
+        try (DocumentCache.Lease lease = acquire(source, password))
+        {
+            PDDocument document = lease.getDocument();
+            this.imageType = null;
+            if ("bilevel".equalsIgnoreCase(color))
+            {
+                this.imageType = ImageType.BINARY;
+            }
+            else if ("gray".equalsIgnoreCase(color))
+            {
+                this.imageType = ImageType.GRAY;
+            }
+            else if ("rgb".equalsIgnoreCase(color))
             {
-                outputPrefix = pdfFile.substring( 0, pdfFile.lastIndexOf( '.' ));
+                this.imageType = ImageType.RGB;
             }
-            if (quality < 0)
+            else if ("rgba".equalsIgnoreCase(color))
             {
-                quality = "png".equals(imageFormat) ? 0f : 1f;
+                this.imageType = ImageType.ARGB;
             }
 
-            try (PDDocument document = Loader.loadPDF(new File(pdfFile), password))
+            if (imageType == null)
             {
-                PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm();
-                if (acroForm != null && acroForm.getNeedAppearances())
+                LOGGER.error( "Error: Invalid color." );
+                throw new InvalidColorException("Invalid color " + imageType);
+            }
+
+            this.target = target;
+            this.outputPrefix = outputPrefix;
+            this.imageFormat = imageFormat;
+            this.dpi = dpi;
+            this.quality = quality;
+            this.subsampling = subsampling;
+            prepareDocument(document);
+
+            long startTime = System.nanoTime();
+
+            // render the pages
+            endPage = Math.min(endPage, document.getNumberOfPages());
+            int count = Math.max(0, 1 + endPage - startPage);
+            this.firstPageIndex = startPage - 1;
+            this.fileNames = new String[count];
+            int renderers = WorkerPool.parallelism(parallelism, count);
+            int encoders = WorkerPool.parallelism(encoderThreads, count);
+            boolean success = renderAndEncode(document, source, password, renderers, encoders,
+                    Math.max(1, queueSize), endPage);
+            for (String fileName : fileNames)
+            {
+                if (fileName != null)
                 {
-                    acroForm.refreshAppearances();
+                    message.append("\n file").append(source).append(" exported to image ").append(fileName);
                 }
-                ImageType imageType = null;
-                if ("bilevel".equalsIgnoreCase(color))
+            }
+
+            // performance stats
+            long endTime = System.nanoTime();
+            long duration = Math.max(1, (endTime - startTime) / 1000000);
+            LOGGER.debug("Rendered {} page{} in {}ms with {} renderer{} and {} encoder{} ({} pages/sec)",
+                    count, count == 1 ? "" : "s", duration, renderers, renderers == 1 ? "" : "s",
+                    encoders, encoders == 1 ? "" : "s", count * 1000L / duration);
+            if (!success)
+            {
+                LOGGER.error( "Error: no writer found for image format '"
+                        + imageFormat + "'" );
+                throw new NoWriterFoundException("No writer found for image format '" + imageFormat + "'");
+            }
+        }
+        return message.toString();
+    }
+
+    /**
+     * @return the names of the images written by the last conversion, in page order.
+     */
+    public List<String> getFileNames()
+    {
+        List<String> names = new ArrayList<>();
+        for (String fileName : fileNames)
+        {
+            if (fileName != null)
+            {
+                names.add(fileName);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Runs the two stages of the conversion. Renderers push the rasterized pages into a bounded queue that is
+     * drained by the encoders, so rendering of the next pages overlaps with the compression and the disk I/O of
+     * the previous ones. Renderers block when the queue is full, which bounds the number of images held in memory.
+     * PDFRenderer is not thread safe, so every extra renderer loads its own handle of the document while the
+     * calling thread keeps rendering from the one already loaded.
+     *
+     * @return false if no writer was found for some of the images.
+     */
+    private boolean renderAndEncode(PDDocument document, DocumentSource source, String password, int renderers,
+                                    int encoders, int queueSize, int endPage) throws IOException
+    {
+        this.renderedPages = new ArrayBlockingQueue<>(queueSize);
+        this.encodingFailed = new AtomicBoolean(false);
+        AtomicInteger nextPage = new AtomicInteger(firstPageIndex);
+        AtomicBoolean success = new AtomicBoolean(true);
+        ExecutorService encoderPool = WorkerPool.newPool("pdf-to-image-encoder", encoders);
+        ExecutorService renderPool = renderers > 1 ? WorkerPool.newPool("pdf-to-image", renderers - 1) : null;
+        try
+        {
+            List<Future<?>> encoding = new ArrayList<>();
+            for (int e = 0; e < encoders; e++)
+            {
+                encoding.add(encoderPool.submit(() ->
                 {
-                    imageType = ImageType.BINARY;
-                }
-                else if ("gray".equalsIgnoreCase(color))
+                    try (ImageWriterCache writers = new ImageWriterCache())
+                    {
+                        if (!encodePages(writers))
+                        {
+                            success.set(false);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> rendering = new ArrayList<>();
+            for (int r = 1; r < renderers; r++)
+            {
+                rendering.add(renderPool.submit(() ->
                 {
-                    imageType = ImageType.GRAY;
-                }
-                else if ("rgb".equalsIgnoreCase(color))
+                    try (PDDocument handle = source.load(password, memoryUsageSetting))
+                    {
+                        prepareDocument(handle);
+                        renderPages(handle, nextPage, endPage);
+                    }
+                    return null;
+                }));
+            }
+            Exception renderFailure = null;
+            try
+            {
+                renderPages(document, nextPage, endPage);
+                WorkerPool.awaitAll(rendering);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                renderFailure = e;
+                // awaitAll only cancels the other renderers when one of them fails, not the calling thread
+                WorkerPool.cancelAll(rendering);
+            }
+            try
+            {
+                // the encoders drain whatever was queued before their end marker
+                for (int e = 0; e < encoders; e++)
                 {
-                    imageType = ImageType.RGB;
+                    enqueue(END_OF_PAGES);
                 }
-                else if ("rgba".equalsIgnoreCase(color))
+            }
+            catch (IOException e)
+            {
+                // the encoders failed, their failure is reported below
+            }
+            try
+            {
+                WorkerPool.awaitAll(encoding);
+            }
+            catch (IOException e)
+            {
+                if (renderFailure == null || encodingFailed.get())
                 {
-                    imageType = ImageType.ARGB;
+                    throw e;
                 }
+            }
+            if (renderFailure instanceof IOException)
+            {
+                throw (IOException) renderFailure;
+            }
+            if (renderFailure != null)
+            {
+                throw (RuntimeException) renderFailure;
+            }
+        }
+        finally
+        {
+            encoderPool.shutdownNow();
+            if (renderPool != null)
+            {
+                renderPool.shutdownNow();
+            }
+            // a failed conversion returns once no image is written and no handle is open anymore
+            WorkerPool.awaitTermination(encoderPool);
+            if (renderPool != null)
+            {
+                WorkerPool.awaitTermination(renderPool);
+            }
+        }
+        return success.get();
+    }
+
+    /**
+     * Renders pages of the given document until the shared page counter goes past the end page. Several renderers
+     * can share the same counter, each page is rendered exactly once.
+     */
+    private void renderPages(PDDocument document, AtomicInteger nextPage, int endPage) throws IOException
+    {
+        PDFRenderer renderer = new PDFRenderer(document);
+        renderer.setSubsamplingAllowed(subsampling);
+        for (int i = nextPage.getAndIncrement(); i < endPage; i = nextPage.getAndIncrement())
+        {
+            LOGGER.debug("renderer.renderImageWithDPI("+i+", "+dpi+", "+imageType+")");
+            BufferedImage image = renderer.renderImageWithDPI(i, dpi, imageType);
+            enqueue(new RenderedPage(i, image));
+        }
+    }
 
-                if (imageType == null)
+    /**
+     * Writes the rendered pages taken from the queue until the end marker is found. The image name only depends on
+     * the page number, so the output does not depend on the order in which pages are encoded.
+     *
+     * @param writers the image writers of this encoder, reused for all its pages.
+     * @return false if no writer was found for some of the images.
+     */
+    private boolean encodePages(ImageWriterCache writers) throws IOException
+    {
+        boolean success = true;
+        try
+        {
+            RenderedPage page;
+            while ((page = renderedPages.take()) != END_OF_PAGES)
+            {
+                String fileName = outputPrefix + (page.pageIndex + 1) + "." + imageFormat;
+                try (OutputStream output = target.open(fileName))
                 {
-                    LOGGER.error( "Error: Invalid color." );
-                    throw new InvalidColorException("Invalid color " + imageType);
+                    success &= imageIOUtil.writeImage(page.image, imageFormat, output, dpi, quality, writers);
                 }
+                fileNames[page.pageIndex - firstPageIndex] = fileName;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for rendered pages");
+        }
+        catch (IOException | RuntimeException e)
+        {
+            encodingFailed.set(true);
+            throw e;
+        }
+        return success;
+    }
 
-                //if a CropBox has been specified, update the CropBox:
-                //changeCropBoxes(PDDocument document,float a, float b, float c,float d)
-                if (Float.compare(cropBoxLowerLeftX, 0) !=0 ||
-                        Float.compare(cropBoxLowerLeftY, 0) !=0 ||
-                        Float.compare(cropBoxUpperRightX, 0) !=0 ||
-                        Float.compare(cropBoxUpperRightY, 0) !=0 )
+    /**
+     * Puts a page in the queue, waiting while it is full. Gives up when the encoders have failed, as nobody would
+     * drain the queue anymore.
+     */
+    private void enqueue(RenderedPage page) throws IOException
+    {
+        try
+        {
+            while (!renderedPages.offer(page, 100, TimeUnit.MILLISECONDS))
+            {
+                if (encodingFailed.get())
                 {
-                    changeCropBox(document,
-                            cropBoxLowerLeftX, cropBoxLowerLeftY,
-                            cropBoxUpperRightX, cropBoxUpperRightY);
+                    throw new IOException("Image encoding failed, rendering aborted");
                 }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing rendered page");
+        }
+    }
 
-                long startTime = System.nanoTime();
+    /**
+     * Changing the crop boxes or refreshing the appearances of the form fields modifies the document, so a cached
+     * document can't be used then and the document is loaded for this operation only.
+     */
+    private DocumentCache.Lease acquire(DocumentSource source, String password) throws IOException
+    {
+        if (cropBox != null)
+        {
+            return DocumentCache.disabled().acquire(source, password, memoryUsageSetting);
+        }
+        DocumentCache.Lease lease = documentCache.acquire(source, password, memoryUsageSetting);
+        if (documentCache == DocumentCache.disabled() || !needsAppearances(lease.getDocument()))
+        {
+            return lease;
+        }
+        lease.close();
+        return DocumentCache.disabled().acquire(source, password, memoryUsageSetting);
+    }
 
-                // render the pages
-                boolean success = true;
-                endPage = Math.min(endPage, document.getNumberOfPages());
-                PDFRenderer renderer = new PDFRenderer(document);
-                renderer.setSubsamplingAllowed(subsampling);
-                for (int i = startPage - 1; i < endPage; i++)
-                {
-                    LOGGER.debug("renderer.renderImageWithDPI("+i+", "+dpi+", "+imageType+")");
-                    BufferedImage image = renderer.renderImageWithDPI(i, dpi, imageType);
-                    fileName = outputPrefix + (i + 1) + "." + imageFormat;
-                    success &= imageIOUtil.writeImage(image, fileName, dpi, quality);
-                    message = message + "\n file" + pdfFile + " exported to image " + fileName;
-                }
+    private static boolean needsAppearances(PDDocument document)
+    {
+        // without fixup, the default one may already modify the form
+        PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm(null);
+        return acroForm != null && acroForm.getNeedAppearances();
+    }
 
-                // performance stats
-                long endTime = System.nanoTime();
-                long duration = endTime - startTime;
-                int count = 1 + endPage - startPage;
-                LOGGER.debug("Rendered %d page%s in %dms%n", count, count == 1 ? "" : "s", duration / 1000000);
-                if (!success)
-                {
-                    LOGGER.error( "Error: no writer found for image format '"
-                            + imageFormat + "'" );
-                    throw new NoWriterFoundException("No writer found for image format '" + imageFormat + "'");
-                }
-            }
+    /**
+     * Only documents loaded for this operation are modified: see acquire(), a form needing appearances is never
+     * rendered from a cached document, and the default fixup isn't applied to the form of a cached one.
+     */
+    private void prepareDocument(PDDocument document) throws IOException
+    {
+        PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm(null);
+        if (acroForm != null && acroForm.getNeedAppearances())
+        {
+            acroForm.refreshAppearances();
+        }
+        if (cropBox != null)
+        {
+            changeCropBox(document, cropBox[0], cropBox[1], cropBox[2], cropBox[3]);
         }
-        return message;
     }
 
     /**
@@ -156,6 +460,9 @@ public final class PDFToImage
                 + "  -cropbox <int> <int> <int> <int> : The page area to export\n"
                 + "  -time                            : Prints timing information to stdout\n"
                 + "  -subsampling                     : Activate subsampling (for PDFs with huge images)\n"
+                + "  -parallelism <int>               : Number of pages rendered at the same time (default: 1)\n"
+                + "  -encoders <int>                  : Number of threads encoding the rendered pages (default: 1)\n"
+                + "  -queueSize <int>                 : Rendered pages waiting to be encoded (default: 2)\n"
                 + "  <inputfile>                      : The PDF document to use\n";
 
         return message;
@@ -192,4 +499,19 @@ public final class PDFToImage
             page.setCropBox(rectangle);
         }
     }
+
+    /**
+     * A rendered page waiting to be encoded.
+     */
+    private static final class RenderedPage
+    {
+        private final int pageIndex;
+        private final BufferedImage image;
+
+        private RenderedPage(int pageIndex, BufferedImage image)
+        {
+            this.pageIndex = pageIndex;
+            this.image = image;
+        }
+    }
 }
@@ -16,14 +16,27 @@
  */
 package org.mule.extension.apache.pdfbox.internal.operations;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 
@@ -33,6 +46,12 @@ import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.font.PDType0Font;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.mule.extension.apache.pdfbox.api.enums.PageSizes;
+import org.mule.extension.apache.pdfbox.internal.utils.CharLineReader;
+import org.mule.extension.apache.pdfbox.internal.utils.FontCache;
+import org.mule.extension.apache.pdfbox.internal.utils.GlyphWidths;
+import org.mule.extension.apache.pdfbox.internal.utils.OutputTarget;
+import org.mule.extension.apache.pdfbox.internal.utils.PageContentSpool;
+import org.mule.extension.apache.pdfbox.internal.utils.WorkerPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +84,10 @@ public class TextToPDF
     private PDRectangle mediaBox = PDRectangle.LETTER;
     private boolean landscape = false;
     private PDFont font = DEFAULT_FONT;
+    private GlyphWidths glyphWidths = GlyphWidths.forStandardFont(DEFAULT_FONT);
+    private PageContentSpool contentSpool;
+
+    private final MemoryUsageSetting memoryUsageSetting;
 
     private static final Map<String, PDType1Font> STANDARD_14 = new HashMap<>();
     static
@@ -85,6 +108,19 @@ public class TextToPDF
         STANDARD_14.put(PDType1Font.ZAPF_DINGBATS.getBaseFont(), PDType1Font.ZAPF_DINGBATS);
     }
 
+    public TextToPDF()
+    {
+        this(MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * @param memoryUsageSetting where to keep the data of the documents created by the operation.
+     */
+    public TextToPDF(MemoryUsageSetting memoryUsageSetting)
+    {
+        this.memoryUsageSetting = memoryUsageSetting;
+    }
+
     /**
      * Create a PDF document with some text.
      *
@@ -96,7 +132,7 @@ public class TextToPDF
      */
     public PDDocument createPDFFromText( Reader text ) throws IOException
     {
-        PDDocument doc = new PDDocument();
+        PDDocument doc = new PDDocument(memoryUsageSetting);
         createPDFFromText(doc, text);
         return doc;
     }
@@ -124,17 +160,19 @@ public class TextToPDF
 
             //calculate font height and increase by a factor.
             height = height*fontSize*LINE_HEIGHT_FACTOR;
-            BufferedReader data = new BufferedReader( text );
-            String nextLine;
+            CharLineReader data = new CharLineReader( text );
             PDPage page = new PDPage(actualMediaBox);
             PDPageContentStream contentStream = null;
             float y = -1;
             float maxStringLength = page.getMediaBox().getWidth() - 2*margin;
+            float spaceWidth = getStringWidth(" ");
+            // reused for every line drawn
+            StringBuilder nextLineToDraw = new StringBuilder();
 
             // There is a special case of creating a PDF document from an empty string.
             boolean textIsEmpty = true;
 
-            while( (nextLine = data.readLine()) != null )
+            while( data.readLine() )
             {
 
                 // The input text is nonEmpty. New pages will be created and added
@@ -142,66 +180,65 @@ public class TextToPDF
                 // the text.
                 textIsEmpty = false;
 
-                String[] lineWords = nextLine.replaceAll("[\\n\\r]+$", "").split(" ");
-                int lineIndex = 0;
-                while( lineIndex < lineWords.length )
+                // the words are the ranges of the line between single spaces, as String.split(" ") returns them:
+                // trailing spaces are dropped, a line of spaces has no word and an empty line has one empty word
+                char[] line = data.getLine();
+                int lineEnd = data.getLength();
+                while (lineEnd > 0 && line[lineEnd - 1] == ' ')
                 {
-                    StringBuilder nextLineToDraw = new StringBuilder();
+                    lineEnd--;
+                }
+                int wordStart = lineEnd == 0 && data.getLength() > 0 ? 1 : 0;
+                while( wordStart <= lineEnd )
+                {
+                    nextLineToDraw.setLength(0);
+                    // width of nextLineToDraw in glyph space units, grown word by word instead of measuring the
+                    // whole line again for every candidate word
+                    float lineWidth = 0;
                     float lengthIfUsingNextWord = 0;
                     boolean ff = false;
                     do
                     {
-                        String word1, word2 = "";
-                        int indexFF = lineWords[lineIndex].indexOf('\f');
-                        if (indexFF == -1)
-                        {
-                            word1 = lineWords[lineIndex];
-                        }
-                        else
+                        int wordEnd = indexOf(line, ' ', wordStart, lineEnd);
+                        int word1End = indexOf(line, '\f', wordStart, wordEnd);
+                        int word2Start = wordEnd;
+                        if (word1End < wordEnd)
                         {
                             ff = true;
-                            word1 = lineWords[lineIndex].substring(0, indexFF);
-                            if (indexFF < lineWords[lineIndex].length())
-                            {
-                                word2 = lineWords[lineIndex].substring(indexFF + 1);
-                            }
+                            word2Start = word1End + 1;
                         }
                         // word1 is the part before ff, word2 after
                         // both can be empty
                         // word1 can also be empty without ff, if a line has many spaces
-                        if (word1.length() > 0 || !ff)
+                        if (word1End > wordStart || !ff)
                         {
-                            nextLineToDraw.append(word1);
-                            nextLineToDraw.append(" ");
+                            nextLineToDraw.append(line, wordStart, word1End - wordStart);
+                            nextLineToDraw.append(' ');
+                            lineWidth += getStringWidth(line, wordStart, word1End) + spaceWidth;
                         }
-                        if (!ff || word2.length() == 0)
+                        if (!ff || word2Start == wordEnd)
                         {
-                            lineIndex++;
+                            wordStart = wordEnd + 1;
                         }
                         else
                         {
-                            lineWords[lineIndex] = word2;
+                            wordStart = word2Start;
                         }
                         if (ff)
                         {
                             break;
                         }
-                        if( lineIndex < lineWords.length )
+                        if( wordStart <= lineEnd )
                         {
                             // need cut off at \f in next word to avoid IllegalArgumentException
-                            String nextWord = lineWords[lineIndex];
-                            indexFF = nextWord.indexOf('\f');
-                            if (indexFF != -1)
-                            {
-                                nextWord = nextWord.substring(0, indexFF);
-                            }
-
-                            String lineWithNextWord = nextLineToDraw.toString() + " " + nextWord;
+                            int nextWordEnd = indexOf(line, '\f', wordStart, indexOf(line, ' ', wordStart, lineEnd));
+
+                            // the line already ends with a space, one more is counted before the next word
                             lengthIfUsingNextWord =
-                                    (font.getStringWidth( lineWithNextWord )/FONTSCALE) * fontSize;
+                                    ((lineWidth + spaceWidth + getStringWidth( line, wordStart, nextWordEnd ))/FONTSCALE) * fontSize;
                         }
                     }
-                    while (lineIndex < lineWords.length && lengthIfUsingNextWord < maxStringLength);
+                    while (wordStart <= lineEnd && lengthIfUsingNextWord < maxStringLength);
 
                     if( y < margin )
                     {
@@ -214,7 +251,7 @@ public class TextToPDF
                             contentStream.endText();
                             contentStream.close();
                         }
-                        contentStream = new PDPageContentStream(doc, page);
+                        contentStream = openContentStream(doc, page);
                         contentStream.setFont( font, fontSize );
                         contentStream.beginText();
                         y = page.getMediaBox().getHeight() - margin + height;
@@ -234,7 +271,7 @@ public class TextToPDF
                         doc.addPage(page);
                         contentStream.endText();
                         contentStream.close();
-                        contentStream = new PDPageContentStream(doc, page);
+                        contentStream = openContentStream(doc, page);
                         contentStream.setFont(font, fontSize);
                         contentStream.beginText();
                         y = page.getMediaBox().getHeight() - margin + height;
@@ -267,31 +304,214 @@ public class TextToPDF
         }
     }
 
-    public String TextToPDF(String inputFile, String outputFile, String ttfLocation, String fontSize, PageSizes pageSize, boolean landscape) throws IOException
+    private PDPageContentStream openContentStream(PDDocument doc, PDPage page) throws IOException
+    {
+        return contentSpool == null ? new PDPageContentStream(doc, page) : contentSpool.open(doc, page);
+    }
+
+    /**
+     * Width of a string in glyph space units, see GlyphWidths.
+     */
+    private float getStringWidth(String text) throws IOException
+    {
+        return glyphWidths.getStringWidth(font, text);
+    }
+
+    private float getStringWidth(char[] text, int start, int end) throws IOException
+    {
+        return glyphWidths.getStringWidth(font, text, start, end);
+    }
+
+    /**
+     * @return the index of the first occurrence of c between start and end, or end if there is none.
+     */
+    private static int indexOf(char[] text, char c, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (text[i] == c)
+            {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    public String TextToPDF(String inputFile, String outputFile, String ttfLocation, String fontSize, PageSizes pageSize, boolean landscape, boolean streaming) throws IOException
+    {
+        try (Reader fileReader = new FileReader(inputFile))
+        {
+            convert(fileReader, "file " + inputFile, OutputTarget.files(), outputFile, ttfLocation, fontSize, pageSize, landscape, streaming);
+        }
+        return "The input file " + inputFile + " was up-converted to file  " + outputFile;
+    }
+
+    /**
+     * Converts text read from a stream, i.e. the Mule message payload, decoded as UTF-8.
+     */
+    public String TextToPDF(InputStream input, OutputTarget target, String outputFile, String ttfLocation, String fontSize, PageSizes pageSize, boolean landscape, boolean streaming) throws IOException
+    {
+        Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+        convert(reader, "payload", target, outputFile, ttfLocation, fontSize, pageSize, landscape, streaming);
+        return "The input payload was up-converted to file  " + outputFile;
+    }
+
+    private void convert(Reader text, String input, OutputTarget target, String outputFile, String ttfLocation, String fontSize, PageSizes pageSize, boolean landscape, boolean streaming) throws IOException
     {
         LOGGER.debug("Initializing constructor with config: \n " +
-                "inputFile: "+inputFile+"\n" +
+                "input: "+input+"\n" +
                 "outputFile: "+outputFile+"\n" +
                 "ttfLocation: "+ttfLocation+"\n" +
                 "fontSize: "+fontSize+"\n" +
                 "pageSize: "+pageSize+"\n" +
-                "landscape: "+landscape+"\n");
+                "landscape: "+landscape+"\n" +
+                "streaming: "+streaming+"\n");
 
         // suppress the Dock icon on OS X
         System.setProperty("apple.awt.UIElement", "true");
 
-        PDDocument document = new PDDocument();
-        FileReader fileReader = new FileReader(inputFile);
+        TextToPDF app = newConverter(fontSize, pageSize, landscape);
 
-        TextToPDF app = new TextToPDF();
+        // the font is lent until the document is saved, as its subset is embedded then
+        try (FontCache.Lease fontLease = ttfLocation == null ? null : FontCache.acquire(ttfLocation))
+        {
+            convert(app, fontLease, text, target, outputFile, streaming);
+        }
+    }
 
-        if (ttfLocation == null) {
-            LOGGER.debug("set default font");
-            app.setFont(getStandardFont(DEFAULT_FONT.getBaseFont()));
-        }else {
-            PDFont font = PDType0Font.load(document, new File(ttfLocation));
-            app.setFont(font);
-        };
+    /**
+     * Converts text files in batch, writing one document per input to the output directory, named after the input
+     * with the pdf extension. Every worker converts its files one after the other with the same converter and font,
+     * so the font file is parsed once per worker and the widths of its characters once for the whole batch.
+     *
+     * @param inputFiles the paths of the text files to convert.
+     * @param outputDirectory where to write the documents.
+     * @param parallelism number of files converted at the same time, 0 for one per core.
+     */
+    public String TextToPDF(List<String> inputFiles, String outputDirectory, String ttfLocation, String fontSize, PageSizes pageSize, boolean landscape, boolean streaming, int parallelism) throws IOException
+    {
+        LOGGER.debug("Initializing batch with config: \n " +
+                "inputFiles: "+inputFiles.size()+"\n" +
+                "outputDirectory: "+outputDirectory+"\n" +
+                "ttfLocation: "+ttfLocation+"\n" +
+                "fontSize: "+fontSize+"\n" +
+                "pageSize: "+pageSize+"\n" +
+                "landscape: "+landscape+"\n" +
+                "streaming: "+streaming+"\n" +
+                "parallelism: "+parallelism+"\n");
+
+        // suppress the Dock icon on OS X
+        System.setProperty("apple.awt.UIElement", "true");
+
+        List<String> outputFiles = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (String inputFile : inputFiles)
+        {
+            String name = new File(inputFile).getName();
+            int extension = name.lastIndexOf('.');
+            name = (extension > 0 ? name.substring(0, extension) : name) + ".pdf";
+            if (!names.add(name))
+            {
+                throw new IOException("Several input files would be converted to " + name + " in " + outputDirectory);
+            }
+            outputFiles.add(new File(outputDirectory, name).getPath());
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        int workers = WorkerPool.parallelism(parallelism, inputFiles.size());
+        long startTime = System.nanoTime();
+        if (workers == 1)
+        {
+            convertBatch(inputFiles, outputFiles, next, ttfLocation, fontSize, pageSize, landscape, streaming);
+        }
+        else
+        {
+            ExecutorService pool = WorkerPool.newPool("text2pdf", workers - 1);
+            try
+            {
+                List<Future<?>> converting = new ArrayList<>();
+                for (int w = 1; w < workers; w++)
+                {
+                    converting.add(pool.submit(() ->
+                    {
+                        convertBatch(inputFiles, outputFiles, next, ttfLocation, fontSize, pageSize, landscape, streaming);
+                        return null;
+                    }));
+                }
+                convertBatch(inputFiles, outputFiles, next, ttfLocation, fontSize, pageSize, landscape, streaming);
+                WorkerPool.awaitAll(converting);
+            }
+            finally
+            {
+                pool.shutdownNow();
+                // no PDF is saved and no font is leased after a failed batch returns
+                WorkerPool.awaitTermination(pool);
+            }
+        }
+        LOGGER.debug("Converted " + inputFiles.size() + " files with " + workers + " workers in "
+                + (System.nanoTime() - startTime) / 1000000 + " ms");
+        return inputFiles.size() + " input files were up-converted to directory " + outputDirectory;
+    }
+
+    /**
+     * Lists the inputs of a batch: the given files, then the files of the given directory in name order.
+     *
+     * @param inputFiles paths of text files, may be null.
+     * @param inputDirectory path of a directory of text files, may be null.
+     * @return the paths of the files to convert.
+     * @throws IOException if the directory can't be listed.
+     */
+    public static List<String> listInputFiles(String[] inputFiles, String inputDirectory) throws IOException
+    {
+        List<String> inputs = new ArrayList<>();
+        if (inputFiles != null)
+        {
+            inputs.addAll(Arrays.asList(inputFiles));
+        }
+        if (inputDirectory != null)
+        {
+            File[] files = new File(inputDirectory).listFiles(File::isFile);
+            if (files == null)
+            {
+                throw new IOException("Could not list the files of directory " + inputDirectory);
+            }
+            Arrays.sort(files);
+            for (File file : files)
+            {
+                inputs.add(file.getPath());
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Converts the files of the batch not taken by another worker yet. A failure stops the other workers after the
+     * file they are converting.
+     */
+    private void convertBatch(List<String> inputFiles, List<String> outputFiles, AtomicInteger next, String ttfLocation, String fontSize, PageSizes pageSize, boolean landscape, boolean streaming) throws IOException
+    {
+        TextToPDF app = newConverter(fontSize, pageSize, landscape);
+        try (FontCache.Lease fontLease = ttfLocation == null ? null : FontCache.acquire(ttfLocation))
+        {
+            int index;
+            while ((index = next.getAndIncrement()) < inputFiles.size())
+            {
+                try (Reader fileReader = new FileReader(inputFiles.get(index)))
+                {
+                    convert(app, fontLease, fileReader, OutputTarget.files(), outputFiles.get(index), streaming);
+                }
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            next.set(inputFiles.size());
+            throw e;
+        }
+    }
+
+    private static TextToPDF newConverter(String fontSize, PageSizes pageSize, boolean landscape)
+    {
+        TextToPDF app = new TextToPDF();
 
         if(fontSize == null) {
             LOGGER.debug("set default font size");
@@ -304,10 +524,41 @@ public class TextToPDF
         app.setMediaBox(rectangle);
 
         app.setLandscape(landscape);
-        app.createPDFFromText(document, fileReader);
-        document.save(outputFile);
-        document.close();
-        return "The input file " + inputFile + " was up-converted to file  " + outputFile;
+        return app;
+    }
+
+    /**
+     * Creates and saves one document. The converter and the font can be used for the next document once this one
+     * is saved.
+     *
+     * @param fontLease the font to embed, null for the default font.
+     */
+    private void convert(TextToPDF app, FontCache.Lease fontLease, Reader text, OutputTarget target, String outputFile, boolean streaming) throws IOException
+    {
+        try (PDDocument document = new PDDocument(memoryUsageSetting);
+             PageContentSpool spool = streaming ? new PageContentSpool(memoryUsageSetting.getTempDir()) : null)
+        {
+            if (fontLease == null) {
+                LOGGER.debug("set default font");
+                app.setFont(getStandardFont(DEFAULT_FONT.getBaseFont()));
+            }else {
+                PDFont font = PDType0Font.load(document, fontLease.getFont(), true);
+                app.setFont(font, fontLease.getGlyphWidths());
+            };
+
+            app.setContentSpool(spool);
+            app.createPDFFromText(document, text);
+            if (spool != null)
+            {
+                spool.attach();
+            }
+            try (OutputStream output = target.open(outputFile))
+            {
+                // object streams are built from all the objects of the document at once, so they are left out when
+                // streaming; the page contents are compressed in both cases
+                document.save(output, streaming ? CompressParameters.NO_COMPRESSION : CompressParameters.DEFAULT_COMPRESSION);
+            }
+        }
     }
 
     private static PDRectangle createRectangle( String paperSize )
@@ -421,8 +672,27 @@ public class TextToPDF
      * @param aFont The font to set.
      */
     public void setFont(PDFont aFont)
+    {
+        setFont(aFont, aFont.isStandard14() ? GlyphWidths.forStandardFont(aFont) : new GlyphWidths());
+    }
+
+    /**
+     * @param aFont The new font.
+     * @param widths The advances of the characters of the font, shared by the documents using the same font.
+     */
+    public void setFont(PDFont aFont, GlyphWidths widths)
     {
         this.font = aFont;
+        this.glyphWidths = widths;
+    }
+
+    /**
+     * @param spool where the content of the pages is written as soon as they are complete, null to keep it in the
+     * document.
+     */
+    public void setContentSpool(PageContentSpool spool)
+    {
+        this.contentSpool = spool;
     }
     /**
      * @return Returns the fontSize.
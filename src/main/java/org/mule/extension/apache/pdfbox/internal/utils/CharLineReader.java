@@ -0,0 +1,92 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads text line by line into a reusable char buffer, without creating a String per line. Lines are split like
+ * BufferedReader.readLine() does: at a line feed, a carriage return or a carriage return followed by a line feed,
+ * and the terminator isn't part of the line.
+ */
+public final class CharLineReader
+{
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private boolean skipLF;
+    private char[] line = new char[256];
+    private int length;
+
+    public CharLineReader(Reader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next line into the line buffer.
+     *
+     * @return false if the end of the text has been reached.
+     * @throws IOException if the text can't be read.
+     */
+    public boolean readLine() throws IOException
+    {
+        length = 0;
+        while (true)
+        {
+            if (position == limit)
+            {
+                int read = reader.read(buffer, 0, buffer.length);
+                if (read < 0)
+                {
+                    return length > 0;
+                }
+                position = 0;
+                limit = read;
+                continue;
+            }
+            char c = buffer[position++];
+            if (skipLF)
+            {
+                skipLF = false;
+                if (c == '\n')
+                {
+                    continue;
+                }
+            }
+            if (c == '\n')
+            {
+                return true;
+            }
+            if (c == '\r')
+            {
+                skipLF = true;
+                return true;
+            }
+            if (length == line.length)
+            {
+                char[] grown = new char[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            line[length++] = c;
+        }
+    }
+
+    /**
+     * @return the buffer holding the last line read, from index 0 to getLength(). It is overwritten by the next
+     * call to readLine().
+     */
+    public char[] getLine()
+    {
+        return line;
+    }
+
+    /**
+     * @return the number of chars of the last line read.
+     */
+    public int getLength()
+    {
+        return length;
+    }
+}
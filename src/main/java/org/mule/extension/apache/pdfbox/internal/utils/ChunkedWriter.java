@@ -0,0 +1,178 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writer collecting chars in a large buffer and encoding them straight into a channel, so that the many small
+ * writes of a text stripper end up in a few large writes to the file. Every write to the channel is counted as a
+ * flush, to report how the output was chunked.
+ */
+public final class ChunkedWriter extends Writer
+{
+    /**
+     * Default size of the buffer, in chars.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    private long flushes;
+    private long bytesWritten;
+    private boolean closed;
+
+    /**
+     * @param channel where to write the encoded text, it is closed with the writer.
+     * @param charset the encoding of the text.
+     * @param bufferSize the number of chars collected before they are encoded and written.
+     */
+    public ChunkedWriter(WritableByteChannel channel, Charset charset, int bufferSize)
+    {
+        this.channel = channel;
+        // same behavior as OutputStreamWriter for chars the charset can't encode
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        int size = Math.max(bufferSize, 1024);
+        this.chars = CharBuffer.allocate(size);
+        this.bytes = ByteBuffer.allocate((int) Math.ceil(size * encoder.maxBytesPerChar()));
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        if (!chars.hasRemaining())
+        {
+            flush();
+        }
+        chars.put((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (!chars.hasRemaining())
+            {
+                flush();
+            }
+            int n = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (!chars.hasRemaining())
+            {
+                flush();
+            }
+            int n = Math.min(len, chars.remaining());
+            str.getChars(off, off + n, chars.array(), chars.position());
+            chars.position(chars.position() + n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the chars collected so far, except a trailing high surrogate waiting for its pair.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        encode(false);
+        writeBytes();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow())
+            {
+                writeBytes();
+            }
+            writeBytes();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the number of writes to the channel.
+     */
+    public long getFlushes()
+    {
+        return flushes;
+    }
+
+    /**
+     * @return the number of bytes written to the channel.
+     */
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    private void encode(boolean endOfInput) throws IOException
+    {
+        chars.flip();
+        while (true)
+        {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow())
+            {
+                writeBytes();
+            }
+            else if (result.isUnderflow())
+            {
+                break;
+            }
+            else
+            {
+                result.throwException();
+            }
+        }
+        chars.compact();
+    }
+
+    private void writeBytes() throws IOException
+    {
+        if (bytes.position() == 0)
+        {
+            return;
+        }
+        bytes.flip();
+        while (bytes.hasRemaining())
+        {
+            bytesWritten += channel.write(bytes);
+        }
+        bytes.clear();
+        flushes++;
+    }
+}
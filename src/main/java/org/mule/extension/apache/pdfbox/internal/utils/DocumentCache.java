@@ -0,0 +1,207 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps parsed documents open so that several operations on the same input don't parse it again. Documents are
+ * keyed by their source (path, size and modification time of a file, digest of a payload) and password, and
+ * evicted in least recently used order once the cache is full.
+ * <p>
+ * PDFBox documents are not thread safe, so a cached document is lent to one operation at a time. An operation
+ * asking for a document that is already lent gets its own copy, which is closed when released. Documents evicted
+ * while lent are closed once they are released.
+ */
+public final class DocumentCache
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentCache.class);
+
+    private static final DocumentCache DISABLED = new DocumentCache(0);
+
+    private final int maxDocuments;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxDocuments the number of documents kept open, 0 disables the cache.
+     */
+    public DocumentCache(int maxDocuments)
+    {
+        this.maxDocuments = maxDocuments;
+    }
+
+    /**
+     * @return a cache that loads the document again on every call.
+     */
+    public static DocumentCache disabled()
+    {
+        return DISABLED;
+    }
+
+    /**
+     * Lends the parsed document of a source, loading it if it isn't cached yet. The operation must not leave the
+     * document modified, as the next operations will see its changes.
+     *
+     * @param source the input document.
+     * @param password the password to decrypt the document, may be null.
+     * @param memoryUsageSetting the memory setting used if the document has to be loaded.
+     * @return the lease of the document, it must be closed once the operation is done with it.
+     * @throws IOException if the document can't be read or parsed.
+     */
+    public Lease acquire(DocumentSource source, String password, MemoryUsageSetting memoryUsageSetting)
+            throws IOException
+    {
+        if (maxDocuments < 1)
+        {
+            return new Lease(source.load(password, memoryUsageSetting), null);
+        }
+        String key = source.getCacheKey() + '\u0000' + (password == null ? "" : password);
+        synchronized (entries)
+        {
+            Entry entry = entries.get(key);
+            if (entry != null && !entry.lent)
+            {
+                LOGGER.debug("Reusing parsed document " + source);
+                entry.lent = true;
+                return new Lease(entry.document, entry);
+            }
+        }
+        PDDocument document = source.load(password, memoryUsageSetting);
+        List<PDDocument> evicted = new ArrayList<>();
+        Lease lease;
+        synchronized (entries)
+        {
+            if (entries.containsKey(key))
+            {
+                // lent to another operation, or loaded by another one in the meantime: this copy is not cached
+                return new Lease(document, null);
+            }
+            Entry entry = new Entry(document);
+            entry.lent = true;
+            entries.put(key, entry);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxDocuments)
+            {
+                Entry removed = eldest.next();
+                eldest.remove();
+                if (removed.lent)
+                {
+                    removed.evicted = true;
+                }
+                else
+                {
+                    evicted.add(removed.document);
+                }
+            }
+            lease = new Lease(document, entry);
+        }
+        for (PDDocument doc : evicted)
+        {
+            IOUtils.closeQuietly(doc);
+        }
+        return lease;
+    }
+
+    /**
+     * Closes all the cached documents, the ones currently lent are closed when released.
+     */
+    public void clear()
+    {
+        List<PDDocument> closed = new ArrayList<>();
+        synchronized (entries)
+        {
+            for (Entry entry : entries.values())
+            {
+                if (entry.lent)
+                {
+                    entry.evicted = true;
+                }
+                else
+                {
+                    closed.add(entry.document);
+                }
+            }
+            entries.clear();
+        }
+        for (PDDocument doc : closed)
+        {
+            IOUtils.closeQuietly(doc);
+        }
+    }
+
+    private void release(Entry entry) throws IOException
+    {
+        synchronized (entries)
+        {
+            entry.lent = false;
+            if (!entry.evicted)
+            {
+                return;
+            }
+        }
+        entry.document.close();
+    }
+
+    private static final class Entry
+    {
+        private final PDDocument document;
+        private boolean lent;
+        private boolean evicted;
+
+        private Entry(PDDocument document)
+        {
+            this.document = document;
+        }
+    }
+
+    /**
+     * A document lent by the cache to an operation.
+     */
+    public final class Lease implements Closeable
+    {
+        private final PDDocument document;
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(PDDocument document, Entry entry)
+        {
+            this.document = document;
+            this.entry = entry;
+        }
+
+        public PDDocument getDocument()
+        {
+            return document;
+        }
+
+        /**
+         * Gives the document back to the cache, or closes it if it isn't cached.
+         */
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            if (entry == null)
+            {
+                document.close();
+            }
+            else
+            {
+                release(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * The input document of an operation, either a file on disk or the content of a stream (i.e. the Mule message
+ * payload). A source can be loaded several times, e.g. to give every worker of an operation its own handle.
+ */
+public abstract class DocumentSource
+{
+    /**
+     * @param path the path of the input file.
+     * @return a source reading the given file.
+     */
+    public static DocumentSource fromFile(String path)
+    {
+        return new FileSource(path);
+    }
+
+    /**
+     * Reads the whole stream into memory, so the document can be parsed from a RandomAccessRead without spooling
+     * it to a file first. The stream is not closed.
+     *
+     * @param input the stream with the content of the document.
+     * @return a source reading the content of the stream.
+     * @throws IOException if the stream can't be read.
+     */
+    public static DocumentSource fromStream(InputStream input) throws IOException
+    {
+        return new StreamSource(IOUtils.toByteArray(input));
+    }
+
+    /**
+     * Loads and parses the document. Every call returns a new document that must be closed by the caller.
+     *
+     * @param password the password to decrypt the document, may be null.
+     * @param memoryUsageSetting where to keep the data of the document, heap and/or scratch files.
+     * @return the loaded document.
+     * @throws IOException if the document can't be read or parsed.
+     */
+    public abstract PDDocument load(String password, MemoryUsageSetting memoryUsageSetting) throws IOException;
+
+    /**
+     * @return a new stream with the raw content of the document, it must be closed by the caller.
+     * @throws IOException if the content can't be read.
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * @return the path of the input file, or null if the document doesn't come from a file.
+     */
+    public abstract String getPath();
+
+    /**
+     * @return a key identifying the content of the document, which changes when the content does.
+     * @throws IOException if the content can't be read.
+     */
+    public abstract String getCacheKey() throws IOException;
+
+    private static final class FileSource extends DocumentSource
+    {
+        private final String path;
+
+        private FileSource(String path)
+        {
+            this.path = path;
+        }
+
+        @Override
+        public PDDocument load(String password, MemoryUsageSetting memoryUsageSetting) throws IOException
+        {
+            return Loader.loadPDF(new File(path), password, null, null, memoryUsageSetting);
+        }
+
+        @Override
+        public InputStream openStream() throws IOException
+        {
+            return new FileInputStream(path);
+        }
+
+        @Override
+        public String getPath()
+        {
+            return path;
+        }
+
+        @Override
+        public String getCacheKey()
+        {
+            File file = new File(path);
+            return "file:" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        }
+
+        @Override
+        public String toString()
+        {
+            return path;
+        }
+    }
+
+    private static final class StreamSource extends DocumentSource
+    {
+        private final byte[] content;
+        private String digest;
+
+        private StreamSource(byte[] content)
+        {
+            this.content = content;
+        }
+
+        @Override
+        public PDDocument load(String password, MemoryUsageSetting memoryUsageSetting) throws IOException
+        {
+            // the buffer wraps the array without copying it, so every load shares the same bytes
+            return Loader.loadPDF(new RandomAccessReadBuffer(content), password, null, null, memoryUsageSetting);
+        }
+
+        @Override
+        public InputStream openStream()
+        {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public String getPath()
+        {
+            return null;
+        }
+
+        @Override
+        public synchronized String getCacheKey() throws IOException
+        {
+            if (digest == null)
+            {
+                try
+                {
+                    digest = "sha256:" + Base64.getEncoder().encodeToString(
+                            MessageDigest.getInstance("SHA-256").digest(content));
+                }
+                catch (NoSuchAlgorithmException e)
+                {
+                    throw new IOException("SHA-256 is not available", e);
+                }
+            }
+            return digest;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "payload (" + content.length + " bytes)";
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The images written while extracting the images of a document, shared by the engines of all its pages so that an
+ * image used by several pages is decoded and written only once. Images are identified by a key of the content of
+ * their stream (see StreamDigest), which also catches identical images stored as separate objects and doesn't
+ * depend on the handle of the document the image was read from. The images used by every page are recorded as
+ * well, to be written as a manifest.
+ * <p>
+ * Thread safe, so that workers extracting different pages of the same document can share it: every worker reports
+ * the images of its pages with see() first, then the image is written by the worker of the first page using it.
+ */
+public final class ExtractedImages
+{
+    private final Map<String, Integer> firstPages = new ConcurrentHashMap<>();
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<String>> imagesByPage = new ConcurrentSkipListMap<>();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger duplicates = new AtomicInteger();
+
+    /**
+     * Records that a page uses an image, before the images are written.
+     *
+     * @param key the key of the image.
+     * @param page the number of the page, 1 based.
+     */
+    public void see(String key, int page)
+    {
+        firstPages.merge(key, page, Math::min);
+    }
+
+    /**
+     * @param key the key of an image reported with see().
+     * @return the number of the first page using the image.
+     */
+    public int getFirstPage(String key)
+    {
+        return firstPages.get(key);
+    }
+
+    /**
+     * @param key the key of an image.
+     * @return the name the image has been written to, or null if it hasn't been written yet.
+     */
+    public String getName(String key)
+    {
+        return names.get(key);
+    }
+
+    /**
+     * Records an image that has been written.
+     *
+     * @param key the key of the image.
+     * @param name the name the image has been written to.
+     */
+    public void add(String key, String name)
+    {
+        names.put(key, name);
+        written.incrementAndGet();
+    }
+
+    /**
+     * Records that a page uses an image.
+     *
+     * @param page the number of the page, 1 based.
+     * @param name the name the image has been written to.
+     * @param duplicate true if the image had already been written for this page or a previous one.
+     */
+    public void addToPage(int page, String name, boolean duplicate)
+    {
+        imagesByPage.computeIfAbsent(page, p -> new LinkedHashSet<>()).add(name);
+        if (duplicate)
+        {
+            duplicates.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the names of the images written, in the order of the first page using them and in drawing order on
+     * that page, which is the order the sequential extraction writes them in.
+     */
+    public List<String> getNames()
+    {
+        Set<String> ordered = new LinkedHashSet<>();
+        for (Set<String> page : imagesByPage.values())
+        {
+            ordered.addAll(page);
+        }
+        return new ArrayList<>(ordered);
+    }
+
+    /**
+     * @return the number of images written.
+     */
+    public int getWritten()
+    {
+        return written.get();
+    }
+
+    /**
+     * @return the number of images skipped because they had already been written.
+     */
+    public int getDuplicates()
+    {
+        return duplicates.get();
+    }
+
+    /**
+     * Writes the images used by every page as CSV, one line per page and image with the page number and the file
+     * name of the image, in page order. Pages without images are not listed.
+     *
+     * @param out where to write the manifest.
+     * @throws IOException if the manifest can't be written.
+     */
+    public void writeManifest(Writer out) throws IOException
+    {
+        out.write("page,image\n");
+        for (Map.Entry<Integer, Set<String>> page : imagesByPage.entrySet())
+        {
+            for (String name : page.getValue())
+            {
+                out.write(page.getKey() + "," + csv(new File(name).getName()) + "\n");
+            }
+        }
+    }
+
+    private static String csv(String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+        {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,164 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide cache of the TrueType fonts used to generate documents, so that the font file is read and parsed
+ * once instead of for every document. The subset embedded in each document is still computed when that document
+ * is saved.
+ * <p>
+ * A parsed font reads its glyphs from its data on demand and is not thread safe, so every font is lent to one
+ * document at a time: concurrent documents using the same font get their own parsed copy, which is kept for later
+ * documents up to one idle copy per core. A font file that changes on disk is read again. The advances of the
+ * characters of every font file are cached as well, see GlyphWidths.
+ */
+public final class FontCache
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(FontCache.class);
+
+    private static final int MAX_IDLE_FONTS = Runtime.getRuntime().availableProcessors();
+
+    private static final Map<String, FontFile> FONTS = new ConcurrentHashMap<>();
+
+    private FontCache()
+    {
+    }
+
+    /**
+     * Lends a parsed font, reading and parsing the font file only if no idle copy is available.
+     *
+     * @param ttfLocation the path of the TrueType font file.
+     * @return the lease of the font, it must be closed once the document using the font has been saved.
+     * @throws IOException if the font file can't be read or parsed.
+     */
+    public static Lease acquire(String ttfLocation) throws IOException
+    {
+        File file = new File(ttfLocation);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        FontFile fontFile = FONTS.get(ttfLocation);
+        if (fontFile == null || fontFile.size != size || fontFile.lastModified != lastModified)
+        {
+            LOGGER.debug("Reading font file " + ttfLocation);
+            FontFile read = new FontFile(Files.readAllBytes(file.toPath()), size, lastModified);
+            FontFile replaced = FONTS.put(ttfLocation, read);
+            if (replaced != null)
+            {
+                replaced.closeIdle();
+            }
+            fontFile = read;
+        }
+        return new Lease(fontFile, fontFile.borrow());
+    }
+
+    private static final class FontFile
+    {
+        private final byte[] data;
+        private final long size;
+        private final long lastModified;
+        private final Deque<TrueTypeFont> idle = new ArrayDeque<>();
+        private final GlyphWidths glyphWidths = new GlyphWidths();
+        private boolean stale;
+
+        private FontFile(byte[] data, long size, long lastModified)
+        {
+            this.data = data;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        private TrueTypeFont borrow() throws IOException
+        {
+            synchronized (idle)
+            {
+                TrueTypeFont font = idle.poll();
+                if (font != null)
+                {
+                    return font;
+                }
+            }
+            return new TTFParser().parse(new ByteArrayInputStream(data));
+        }
+
+        private void giveBack(TrueTypeFont font)
+        {
+            synchronized (idle)
+            {
+                if (!stale && idle.size() < MAX_IDLE_FONTS)
+                {
+                    idle.push(font);
+                    return;
+                }
+            }
+            IOUtils.closeQuietly(font);
+        }
+
+        private void closeIdle()
+        {
+            synchronized (idle)
+            {
+                stale = true;
+                for (TrueTypeFont font : idle)
+                {
+                    IOUtils.closeQuietly(font);
+                }
+                idle.clear();
+            }
+        }
+    }
+
+    /**
+     * A parsed font lent to a document.
+     */
+    public static final class Lease implements Closeable
+    {
+        private final FontFile fontFile;
+        private TrueTypeFont font;
+
+        private Lease(FontFile fontFile, TrueTypeFont font)
+        {
+            this.fontFile = fontFile;
+            this.font = font;
+        }
+
+        public TrueTypeFont getFont()
+        {
+            return font;
+        }
+
+        /**
+         * @return the advances of the characters of the font, shared by all the documents using this font file.
+         */
+        public GlyphWidths getGlyphWidths()
+        {
+            return fontFile.glyphWidths;
+        }
+
+        /**
+         * Gives the font back to the cache for the next documents.
+         */
+        @Override
+        public void close()
+        {
+            if (font != null)
+            {
+                fontFile.giveBack(font);
+                font = null;
+            }
+        }
+    }
+}
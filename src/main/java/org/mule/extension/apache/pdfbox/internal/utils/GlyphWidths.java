@@ -0,0 +1,98 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the advance widths of the characters of a font, in glyph space units, to lay out text without encoding
+ * every string and looking its glyphs up again. Advances of the Basic Multilingual Plane are kept in an array
+ * indexed by the character, the other code points in a map.
+ * <p>
+ * The advances only depend on the font program, so one cache is shared by all the documents using the same
+ * standard 14 font or the same TrueType font file, even if every document has its own PDFont. Advances are
+ * measured on first use through the PDFont of the calling document. Concurrent callers may measure the same
+ * character twice, which is harmless as they get the same value.
+ */
+public final class GlyphWidths
+{
+    private static final Map<PDFont, GlyphWidths> STANDARD_FONTS = new ConcurrentHashMap<>();
+
+    private final float[] bmp = new float[Character.MAX_VALUE + 1];
+    private final Map<Integer, Float> supplementary = new ConcurrentHashMap<>();
+
+    public GlyphWidths()
+    {
+        // NaN marks the characters that haven't been measured yet
+        Arrays.fill(bmp, Float.NaN);
+    }
+
+    /**
+     * @param font one of the standard 14 fonts.
+     * @return the cache shared by all the documents using that font.
+     */
+    public static GlyphWidths forStandardFont(PDFont font)
+    {
+        return STANDARD_FONTS.computeIfAbsent(font, f -> new GlyphWidths());
+    }
+
+    /**
+     * Width of a string in glyph space units, the same value as PDFont.getStringWidth().
+     *
+     * @param font the font the string is drawn with, used to measure the characters not cached yet.
+     * @param text the string to measure.
+     * @return the sum of the advances of the characters of the string.
+     * @throws IOException if the font can't be read.
+     * @throws IllegalArgumentException if a character is not available in the font.
+     */
+    public float getStringWidth(PDFont font, String text) throws IOException
+    {
+        return getStringWidth(font, text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * Width of the chars of a buffer in glyph space units, the same value as PDFont.getStringWidth() for the
+     * string made of these chars.
+     *
+     * @param font the font the chars are drawn with, used to measure the characters not cached yet.
+     * @param text the buffer holding the chars.
+     * @param start the index of the first char to measure.
+     * @param end the index after the last char to measure.
+     * @return the sum of the advances of the characters.
+     * @throws IOException if the font can't be read.
+     * @throws IllegalArgumentException if a character is not available in the font.
+     */
+    public float getStringWidth(PDFont font, char[] text, int start, int end) throws IOException
+    {
+        float width = 0;
+        for (int i = start; i < end; i++)
+        {
+            char c = text[i];
+            if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text[i + 1]))
+            {
+                int codePoint = Character.toCodePoint(c, text[++i]);
+                Float advance = supplementary.get(codePoint);
+                if (advance == null)
+                {
+                    advance = font.getStringWidth(new String(Character.toChars(codePoint)));
+                    supplementary.put(codePoint, advance);
+                }
+                width += advance;
+            }
+            else
+            {
+                float advance = bmp[c];
+                if (Float.isNaN(advance))
+                {
+                    advance = font.getStringWidth(String.valueOf(c));
+                    bmp[c] = advance;
+                }
+                width += advance;
+            }
+        }
+        return width;
+    }
+}
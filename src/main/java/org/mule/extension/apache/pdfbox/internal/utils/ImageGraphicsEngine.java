@@ -22,19 +22,19 @@ import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
 import org.apache.pdfbox.util.Matrix;
 import org.apache.pdfbox.util.Vector;
 import org.mule.extension.apache.pdfbox.internal.operations.ExtractImages;
+import org.mule.extension.apache.pdfbox.internal.utils.imageio.ImageWriterCache;
 import org.mule.extension.apache.pdfbox.internal.utils.imageio.imageIOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 
 public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
@@ -44,22 +44,124 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
             COSName.DCT_DECODE.getName(),
             COSName.DCT_DECODE_ABBREVIATION.getName());
 
-    private final Set<COSStream> seen = new HashSet<>();
+    private ExtractedImages images;
+    private StreamDigest digest;
+    private List<FoundImage> found;
+    private OutputTarget target = OutputTarget.files();
+    private final ImageWriterCache writers;
     private String prefix = null;
+    private int pageNumber;
     private int imageCounter;
-    boolean useDirectJPEG, noColorConvert = false;
+    private int imagesOnPage;
+    private int inlineImages;
+    boolean useDirectJPEG, noColorConvert, raw = false;
     public ImageGraphicsEngine(PDPage page)
+    {
+        this(page, null);
+    }
+
+    /**
+     * @param writers the image writers of the operation, or null to prepare a writer for every image.
+     */
+    public ImageGraphicsEngine(PDPage page, ImageWriterCache writers)
     {
         super(page);
+        this.writers = writers;
     }
 
     public void run(String prefix, int imageCounter, boolean useDirectJPEG, boolean noColorConvert) throws IOException
     {
+        run(OutputTarget.files(), prefix, imageCounter, useDirectJPEG, noColorConvert);
+    }
+
+    public void run(OutputTarget target, String prefix, int imageCounter, boolean useDirectJPEG, boolean noColorConvert) throws IOException
+    {
+        run(target, new ExtractedImages(), new StreamDigest(), imageCounter, prefix, imageCounter, useDirectJPEG,
+                noColorConvert, false);
+    }
+
+    /**
+     * Extracts the images of the page that haven't been extracted from the previous pages yet.
+     *
+     * @param images the images already written, shared by the engines of all the pages of the document.
+     * @param digest identifies the images, shared by the engines of all the pages of the same document handle.
+     * @param pageNumber the number of the page, 1 based, recorded with the images the page uses.
+     * @param imageCounter the number used to name the images of the page, see getName().
+     * @param raw if true, the images are written with their encoded data when possible, see RawImages.
+     */
+    public void run(OutputTarget target, ExtractedImages images, StreamDigest digest, int pageNumber, String prefix,
+                    int imageCounter, boolean useDirectJPEG, boolean noColorConvert, boolean raw) throws IOException
+    {
+        this.target = target;
+        this.images = images;
+        this.digest = digest;
+        this.pageNumber = pageNumber;
         this.prefix = prefix;
         this.imageCounter = imageCounter;
+        this.imagesOnPage = 0;
         this.useDirectJPEG = useDirectJPEG;
         this.noColorConvert = noColorConvert;
+        this.raw = raw;
+        processPageAndSoftMasks();
+    }
+
+    /**
+     * Finds the images drawn by the page without writing them, so that the images of several pages can be
+     * found in parallel before deciding which page writes which image. See write().
+     *
+     * @param digest identifies the images, shared by the engines of all the pages of the same document handle.
+     * @param pageNumber the number of the page, 1 based.
+     * @return the images drawn by the page, in drawing order, duplicates included.
+     */
+    public List<FoundImage> collect(StreamDigest digest, int pageNumber) throws IOException
+    {
+        this.digest = digest;
+        this.pageNumber = pageNumber;
+        this.found = new ArrayList<>();
+        processPageAndSoftMasks();
+        return found;
+    }
+
+    /**
+     * Writes an image found by collect().
+     *
+     * @param name the name of the image, without suffix.
+     * @return the name of the file written.
+     */
+    public String write(OutputTarget target, PDImage image, String name, boolean useDirectJPEG,
+                        boolean noColorConvert, boolean raw) throws IOException
+    {
+        this.target = target;
+        this.raw = raw;
+        LOGGER.debug("Writing image: " + name);
+        return write2file(image, name, useDirectJPEG, noColorConvert);
+    }
+
+    /**
+     * @param prefix the prefix of the images.
+     * @param imageCounter the number of the page in the names of its images.
+     * @param index the index of the image among the images first written by the page, 1 based.
+     * @return prefix-imageCounter for the first image of the page, prefix-imageCounter-index for the next ones.
+     */
+    public static String getName(String prefix, int imageCounter, int index)
+    {
+        return prefix + "-" + imageCounter + (index > 1 ? "-" + index : "");
+    }
+
+    private void processPageAndSoftMasks() throws IOException
+    {
         PDPage page = getPage();
+        // most pages only draw images through Do and inline images, no need to interpret the whole content
+        List<PDImage> scanned = ImageScanner.scan(page);
+        if (scanned != null)
+        {
+            for (PDImage image : scanned)
+            {
+                foundImage(image);
+            }
+            return;
+        }
+        LOGGER.debug("Page " + pageNumber + " may draw images from patterns, Type 3 fonts or soft masks");
         processPage(page);
         PDResources res = page.getResources();
         if (res == null)
@@ -92,26 +194,74 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
     @Override
     public void drawImage(PDImage pdImage) throws IOException
     {
+        if (pdImage instanceof PDImageXObject && pdImage.isStencil())
+        {
+            processColor(getGraphicsState().getNonStrokingColor());
+        }
+        foundImage(pdImage);
+    }
+
+    private void foundImage(PDImage pdImage) throws IOException
+    {
+        String key;
         if (pdImage instanceof PDImageXObject)
         {
-            if (pdImage.isStencil())
-            {
-                processColor(getGraphicsState().getNonStrokingColor());
-            }
             PDImageXObject xobject = (PDImageXObject)pdImage;
-            if (seen.contains(xobject.getCOSObject()))
-            {
-                // skip duplicate image
-                return;
-            }
-            seen.add(xobject.getCOSObject());
+            key = digest.keyOf(xobject.getCOSObject());
+        }
+        else
+        {
+            // inline images are never shared
+            key = "inline:" + pageNumber + ":" + ++inlineImages;
+        }
+        if (found != null)
+        {
+            found.add(new FoundImage(key, pdImage));
+            return;
+        }
+        String written = images.getName(key);
+        if (written != null)
+        {
+            // skip duplicate image, already written for this page or a previous one
+            images.addToPage(pageNumber, written, true);
+            return;
         }
 
         // save image
-        String name = prefix + "-" + imageCounter;
+        String name = getName(prefix, imageCounter, ++imagesOnPage);
 
         LOGGER.debug("Writing image: " + name);
-        write2file(pdImage, name, useDirectJPEG, noColorConvert);
+        String file = write2file(pdImage, name, useDirectJPEG, noColorConvert);
+        images.add(key, file);
+        images.addToPage(pageNumber, file, false);
+    }
+
+    /**
+     * An image drawn by a page, see collect().
+     */
+    public static final class FoundImage
+    {
+        private final String key;
+        private final PDImage image;
+
+        private FoundImage(String key, PDImage image)
+        {
+            this.key = key;
+            this.image = image;
+        }
+
+        /**
+         * @return the key of the content of the image, see ExtractedImages.
+         */
+        public String getKey()
+        {
+            return key;
+        }
+
+        public PDImage getImage()
+        {
+            return image;
+        }
     }
 
     @Override
@@ -229,11 +379,20 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
      * @param directJPEG if true, force saving JPEG/JPX streams as they are in the PDF file.
      * @param noColorConvert if true, images are extracted with their original colorspace if
      * possible.
+     * @return the name of the file written.
      * @throws IOException When something is wrong with the corresponding file.
      */
-    private void write2file(PDImage pdImage, String prefix, boolean directJPEG,
+    private String write2file(PDImage pdImage, String prefix, boolean directJPEG,
                             boolean noColorConvert) throws IOException
     {
+        if (raw)
+        {
+            String name = RawImages.write(pdImage, target, prefix);
+            if (name != null)
+            {
+                return name;
+            }
+        }
         String suffix = pdImage.getSuffix();
         if (suffix == null || "jb2".equals(suffix))
         {
@@ -266,15 +425,15 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
                     // but a TIFF codec must be in the class path for this to work.
                     suffix = "tiff";
                 }
-                try (FileOutputStream out = new FileOutputStream(prefix + "." + suffix))
+                try (OutputStream out = target.open(prefix + "." + suffix))
                 {
-                    imageIOUtil.writeImage(image, suffix, out);
+                    imageIOUtil.writeImage(image, suffix, out, writers);
                     out.flush();
                 }
-                return;
+                return prefix + "." + suffix;
             }
         }
-        try (FileOutputStream out = new FileOutputStream(prefix + "." + suffix))
+        try (OutputStream out = target.open(prefix + "." + suffix))
         {
             if ("jpg".equals(suffix))
             {
@@ -294,7 +453,7 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
                     BufferedImage image = pdImage.getImage();
                     if (image != null)
                     {
-                        imageIOUtil.writeImage(image, suffix, out);
+                        imageIOUtil.writeImage(image, suffix, out, writers);
                     }
                 }
             }
@@ -317,7 +476,7 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
                     BufferedImage image = pdImage.getImage();
                     if (image != null)
                     {
-                        imageIOUtil.writeImage(image, "jpeg2000", out);
+                        imageIOUtil.writeImage(image, "jpeg2000", out, writers);
                     }
                 }
             }
@@ -326,7 +485,7 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
                 BufferedImage image = pdImage.getImage();
                 if (image == null)
                 {
-                    return;
+                    return prefix + "." + suffix;
                 }
                 // CCITT compressed images can have a different colorspace, but this one is B/W
                 // This is a bitonal image, so copy to TYPE_BYTE_BINARY
@@ -342,18 +501,19 @@ public class ImageGraphicsEngine extends PDFGraphicsStreamEngine
                         bitonalImage.setRGB(x, y, image.getRGB(x, y));
                     }
                 }
-                imageIOUtil.writeImage(bitonalImage, suffix, out);
+                imageIOUtil.writeImage(bitonalImage, suffix, out, writers);
             }
             else
             {
                 BufferedImage image = pdImage.getImage();
                 if (image != null)
                 {
-                    imageIOUtil.writeImage(image, suffix, out);
+                    imageIOUtil.writeImage(image, suffix, out, writers);
                 }
             }
             out.flush();
         }
+        return prefix + "." + suffix;
     }
 
     private boolean hasMasks(PDImage pdImage) throws IOException
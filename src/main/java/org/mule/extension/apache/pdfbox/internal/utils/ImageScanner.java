@@ -0,0 +1,213 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.contentstream.PDContentStream;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDTransparencyGroup;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDInlineImage;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.state.PDSoftMask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the images drawn by a page by only looking at the Do and inline image operators of its content stream and
+ * of the forms it draws, without interpreting the text, the paths and the graphics state like the
+ * ImageGraphicsEngine does. The images are found in the same order as the engine would draw them.
+ * <p>
+ * Images can also be drawn by tiling patterns, Type 3 glyphs and the soft masks of the page, which the scanner
+ * doesn't interpret: if the page or one of its forms uses any of them, the page is left to the engine.
+ */
+public final class ImageScanner
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageScanner.class);
+
+    // same nesting limit as PDFStreamEngine
+    private static final int MAX_LEVEL = 50;
+
+    private final List<PDImage> images = new ArrayList<>();
+    private final Set<COSDictionary> checkedResources = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param page the page to scan.
+     * @return the images drawn by the page in drawing order, duplicates included, or null if the page must be
+     * processed by the ImageGraphicsEngine.
+     * @throws IOException if the content of the page can't be parsed.
+     */
+    public static List<PDImage> scan(PDPage page) throws IOException
+    {
+        ImageScanner scanner = new ImageScanner();
+        PDResources resources = page.getResources();
+        if (resources != null && hasSoftMaskGroup(resources))
+        {
+            return null;
+        }
+        if (page.hasContents() && !scanner.scan(page, resources, 0))
+        {
+            return null;
+        }
+        return scanner.images;
+    }
+
+    /**
+     * Collects the images of a content stream and of the forms it draws.
+     *
+     * @return false if the engine is needed.
+     */
+    private boolean scan(PDContentStream stream, PDResources parentResources, int level) throws IOException
+    {
+        PDResources resources = stream.getResources();
+        if (resources == null)
+        {
+            resources = parentResources != null ? parentResources : new PDResources();
+        }
+        if (checkedResources.add(resources.getCOSObject()) && needsEngine(resources))
+        {
+            return false;
+        }
+        PDFStreamParser parser = new PDFStreamParser(stream);
+        List<COSBase> operands = new ArrayList<>();
+        Object token = parser.parseNextToken();
+        while (token != null)
+        {
+            if (token instanceof Operator)
+            {
+                Operator operator = (Operator) token;
+                if ("Do".equals(operator.getName()))
+                {
+                    if (!drawObject(operands, resources, level))
+                    {
+                        return false;
+                    }
+                }
+                else if ("BI".equals(operator.getName()))
+                {
+                    byte[] data = operator.getImageData();
+                    if (data != null && data.length > 0)
+                    {
+                        images.add(new PDInlineImage(operator.getImageParameters(), data, resources));
+                    }
+                }
+                operands = new ArrayList<>();
+            }
+            else if (token instanceof COSObject)
+            {
+                operands.add(((COSObject) token).getObject());
+            }
+            else
+            {
+                operands.add((COSBase) token);
+            }
+            token = parser.parseNextToken();
+        }
+        return true;
+    }
+
+    private boolean drawObject(List<COSBase> operands, PDResources resources, int level) throws IOException
+    {
+        if (operands.isEmpty() || !(operands.get(0) instanceof COSName))
+        {
+            return true;
+        }
+        COSName name = (COSName) operands.get(0);
+        PDXObject xobject;
+        try
+        {
+            xobject = resources.getXObject(name);
+        }
+        catch (IOException e)
+        {
+            // the engine skips the XObjects it can't read as well
+            LOGGER.warn("Could not read XObject " + name.getName(), e);
+            return true;
+        }
+        if (xobject instanceof PDImageXObject)
+        {
+            images.add((PDImageXObject) xobject);
+        }
+        else if (xobject instanceof PDFormXObject)
+        {
+            if (level + 1 > MAX_LEVEL)
+            {
+                LOGGER.error("recursion is too deep, skipping form XObject");
+                return true;
+            }
+            PDFormXObject form = (PDFormXObject) xobject;
+            if (form instanceof PDTransparencyGroup || form.getCOSObject().getLength() > 0)
+            {
+                return scan(form, resources, level + 1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the resources hold tiling patterns or Type 3 fonts, which may draw images.
+     */
+    private static boolean needsEngine(PDResources resources)
+    {
+        COSDictionary patterns = resources.getCOSObject().getCOSDictionary(COSName.PATTERN);
+        if (patterns != null)
+        {
+            for (COSName name : patterns.keySet())
+            {
+                COSBase pattern = patterns.getDictionaryObject(name);
+                if (pattern instanceof COSDictionary && ((COSDictionary) pattern).getInt(COSName.PATTERN_TYPE) == 1)
+                {
+                    return true;
+                }
+            }
+        }
+        COSDictionary fonts = resources.getCOSObject().getCOSDictionary(COSName.FONT);
+        if (fonts != null)
+        {
+            for (COSName name : fonts.keySet())
+            {
+                COSBase font = fonts.getDictionaryObject(name);
+                if (font instanceof COSDictionary
+                        && COSName.TYPE3.equals(((COSDictionary) font).getCOSName(COSName.SUBTYPE)))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the graphics states of the page hold soft masks, which the engine processes after the page.
+     */
+    private static boolean hasSoftMaskGroup(PDResources resources) throws IOException
+    {
+        for (COSName name : resources.getExtGStateNames())
+        {
+            PDExtendedGraphicsState extGState = resources.getExtGState(name);
+            if (extGState != null)
+            {
+                PDSoftMask softMask = extGState.getSoftMask();
+                if (softMask != null && softMask.getGroup() != null)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
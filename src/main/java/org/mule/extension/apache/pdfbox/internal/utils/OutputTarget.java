@@ -0,0 +1,168 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where an operation writes its results: files on disk, or memory buffers that are handed over to the next
+ * processor as the message payload. Every result is identified by a name, which is the path of the file when
+ * writing to disk.
+ */
+public abstract class OutputTarget
+{
+    private static final OutputTarget FILES = new FileTarget();
+
+    /**
+     * @return a target writing every result to the file with the same name.
+     */
+    public static OutputTarget files()
+    {
+        return FILES;
+    }
+
+    /**
+     * @return a new target keeping every result in memory.
+     */
+    public static MemoryTarget memory()
+    {
+        return new MemoryTarget();
+    }
+
+    /**
+     * Opens the stream for a result. It can be called concurrently from several workers.
+     *
+     * @param name the name of the result.
+     * @return a stream that must be closed by the caller once the result has been written.
+     * @throws IOException if the stream can't be opened.
+     */
+    public abstract OutputStream open(String name) throws IOException;
+
+    /**
+     * Opens a channel for a result, for writers that do their own buffering and write large chunks.
+     *
+     * @param name the name of the result.
+     * @return a channel that must be closed by the caller once the result has been written.
+     * @throws IOException if the channel can't be opened.
+     */
+    public WritableByteChannel openChannel(String name) throws IOException
+    {
+        return Channels.newChannel(open(name));
+    }
+
+    /**
+     * Removes a result that could not be written completely, so that no truncated result is left behind.
+     *
+     * @param name the name of the result.
+     * @throws IOException if the result can't be removed.
+     */
+    public abstract void discard(String name) throws IOException;
+
+    private static final class FileTarget extends OutputTarget
+    {
+        @Override
+        public OutputStream open(String name) throws IOException
+        {
+            return new BufferedOutputStream(new FileOutputStream(name));
+        }
+
+        @Override
+        public WritableByteChannel openChannel(String name) throws IOException
+        {
+            return FileChannel.open(Paths.get(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        @Override
+        public void discard(String name) throws IOException
+        {
+            Files.deleteIfExists(Paths.get(name));
+        }
+    }
+
+    /**
+     * Keeps the results in memory so they can be returned as payload without writing and reading them back
+     * from disk.
+     */
+    public static final class MemoryTarget extends OutputTarget
+    {
+        private final Map<String, Buffer> buffers = new LinkedHashMap<>();
+
+        private MemoryTarget()
+        {
+        }
+
+        @Override
+        public OutputStream open(String name)
+        {
+            Buffer buffer = new Buffer();
+            synchronized (buffers)
+            {
+                buffers.put(name, buffer);
+            }
+            return buffer;
+        }
+
+        @Override
+        public void discard(String name)
+        {
+            synchronized (buffers)
+            {
+                buffers.remove(name);
+            }
+        }
+
+        /**
+         * @return the names of the results, in the order they were opened.
+         */
+        public List<String> getNames()
+        {
+            synchronized (buffers)
+            {
+                return new ArrayList<>(buffers.keySet());
+            }
+        }
+
+        /**
+         * @param name the name of the result.
+         * @return a stream reading the result, backed by the buffer it was written to.
+         */
+        public InputStream get(String name)
+        {
+            Buffer buffer;
+            synchronized (buffers)
+            {
+                buffer = buffers.get(name);
+            }
+            return buffer == null ? null : buffer.toInputStream();
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream
+    {
+        private Buffer()
+        {
+            super(8192);
+        }
+
+        private synchronized InputStream toInputStream()
+        {
+            // shares the internal array, the buffer is not written anymore once the result is complete
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.io.RandomAccessReadView;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Keeps the content streams of the pages of a document being generated in a scratch file instead of the heap.
+ * PDFBox keeps every content stream in memory (or in a scratch file with a buffered page per stream) until the
+ * document is saved, so the heap used to generate a document grows with its size.
+ * <p>
+ * The content of every page is compressed and appended to the scratch file as soon as the page is complete, and
+ * only its offset stays in memory. Before the document is saved, every page gets a content stream reading its
+ * slice of the scratch file, so the save copies the contents from disk to the output. All the pages share the
+ * same resources. Pages must be written one after the other.
+ */
+public final class PageContentSpool implements Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageContentSpool.class);
+
+    private final File file;
+    private final CountingOutputStream output;
+    private final PDResources resources = new PDResources();
+    private final PDAppearanceStream resourceHolder;
+    private final List<PDPage> pages = new ArrayList<>();
+    private long[] ends = new long[64];
+    private boolean pageOpen;
+    private RandomAccessRead input;
+
+    /**
+     * @param directory where to create the scratch file, null for java.io.tmpdir.
+     * @throws IOException if the scratch file can't be created.
+     */
+    public PageContentSpool(File directory) throws IOException
+    {
+        file = File.createTempFile("PDFBox", ".contents", directory);
+        output = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        // content streams writing to an arbitrary output take their resources from an appearance stream
+        resourceHolder = new PDAppearanceStream(new COSStream());
+        resourceHolder.setResources(resources);
+    }
+
+    /**
+     * Starts the content of a page, the previous page must have been closed.
+     *
+     * @param document the document of the page.
+     * @param page the page, its resources are replaced by the shared ones.
+     * @return the content stream of the page, its data is written to the scratch file when it is closed.
+     */
+    public PDPageContentStream open(PDDocument document, PDPage page)
+    {
+        if (pageOpen)
+        {
+            throw new IllegalStateException("The content of the previous page has not been closed");
+        }
+        pageOpen = true;
+        page.setResources(resources);
+        pages.add(page);
+        // content streams write every operator and operand separately, the buffer hands them to the deflater at once
+        return new PDPageContentStream(document, resourceHolder,
+                new BufferedOutputStream(new DeflaterOutputStream(new PageOutputStream())));
+    }
+
+    /**
+     * Sets the content of every page to its data in the scratch file, to be called once all the pages are written
+     * and before the document is saved.
+     *
+     * @throws IOException if the scratch file can't be read.
+     */
+    public void attach() throws IOException
+    {
+        output.close();
+        input = new RandomAccessReadBufferedFile(file);
+        LOGGER.debug("Attaching the contents of " + pages.size() + " pages, " + output.count + " bytes");
+        long start = 0;
+        for (int i = 0; i < pages.size(); i++)
+        {
+            COSStream contents = new COSStream(null, new RandomAccessReadView(input, start, ends[i] - start));
+            contents.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+            pages.get(i).getCOSObject().setItem(COSName.CONTENTS, contents);
+            start = ends[i];
+        }
+    }
+
+    /**
+     * Deletes the scratch file, to be called once the document has been saved.
+     */
+    @Override
+    public void close()
+    {
+        IOUtils.closeQuietly(output);
+        IOUtils.closeQuietly(input);
+        if (!file.delete())
+        {
+            LOGGER.warn("Could not delete the scratch file " + file);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+        private long count;
+
+        private CountingOutputStream(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * The compressed data of the current page, closing it records where the page ends in the scratch file.
+     */
+    private final class PageOutputStream extends OutputStream
+    {
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            output.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            output.write(b, off, len);
+        }
+
+        @Override
+        public void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            int page = pages.size() - 1;
+            if (page == ends.length)
+            {
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+            ends[page] = output.count;
+            pageOpen = false;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes images with the data they are encoded with in the PDF instead of decoding and encoding them again.
+ * <ul>
+ * <li>DCT (JPEG) images are written as .jpg.</li>
+ * <li>JPX (JPEG 2000) images are written as .jp2, or .j2k when the stream is a bare codestream.</li>
+ * <li>CCITT fax images are written as a single strip TIFF.</li>
+ * <li>JBIG2 images are written as a sequential JBIG2 file, their global segments first.</li>
+ * </ul>
+ * The data is copied as it is, the decode array, the color space and the masks of the image are not applied.
+ * When the encoded stream is the stored stream it is copied without decoding anything, else the filters applied
+ * before the image codec (e.g. a Flate compressed JPEG) are decoded.
+ */
+public final class RawImages
+{
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private static final byte[] JP2_SIGNATURE = {0, 0, 0, 0x0C, 'j', 'P', ' ', ' '};
+    private static final byte[] JBIG2_HEADER = {(byte) 0x97, 'J', 'B', '2', 0x0D, 0x0A, 0x1A, 0x0A};
+
+    // TIFF tags and field types
+    private static final int IMAGE_WIDTH = 256;
+    private static final int IMAGE_LENGTH = 257;
+    private static final int BITS_PER_SAMPLE = 258;
+    private static final int COMPRESSION = 259;
+    private static final int PHOTOMETRIC_INTERPRETATION = 262;
+    private static final int STRIP_OFFSETS = 273;
+    private static final int SAMPLES_PER_PIXEL = 277;
+    private static final int ROWS_PER_STRIP = 278;
+    private static final int STRIP_BYTE_COUNTS = 279;
+    private static final int T4_OPTIONS = 292;
+    private static final short SHORT = 3;
+    private static final short LONG = 4;
+
+    private RawImages()
+    {
+    }
+
+    /**
+     * Writes an image with its encoded data.
+     *
+     * @param image the image.
+     * @param target where to write the image.
+     * @param prefix the name of the image, without suffix.
+     * @return the name of the file written, or null if the image isn't encoded in a format that can be written
+     * as it is.
+     * @throws IOException if the image can't be read or written.
+     */
+    public static String write(PDImage image, OutputTarget target, String prefix) throws IOException
+    {
+        COSDictionary dictionary = image.getCOSObject();
+        List<COSName> filters = getFilters(dictionary);
+        if (filters.isEmpty())
+        {
+            return null;
+        }
+        int codec = filters.size() - 1;
+        COSName filter = filters.get(codec);
+        COSDictionary parameters = getDecodeParameters(dictionary, codec);
+        if (COSName.DCT_DECODE.equals(filter) || COSName.DCT_DECODE_ABBREVIATION.equals(filter))
+        {
+            String name = prefix + ".jpg";
+            copy(openEncoded(image, filter), null, target, name);
+            return name;
+        }
+        if (COSName.JPX_DECODE.equals(filter))
+        {
+            InputStream data = openEncoded(image, filter);
+            byte[] signature = readHead(data, JP2_SIGNATURE.length);
+            String name = prefix + (startsWith(signature, JP2_SIGNATURE) ? ".jp2" : ".j2k");
+            copy(data, signature, target, name);
+            return name;
+        }
+        if (COSName.CCITTFAX_DECODE.equals(filter) || COSName.CCITTFAX_DECODE_ABBREVIATION.equals(filter))
+        {
+            if (parameters.getBoolean(COSName.ENCODED_BYTE_ALIGN, false))
+            {
+                // TIFF can't tell that every line of a CCITT image is byte aligned
+                return null;
+            }
+            String name = prefix + ".tiff";
+            writeTIFF(image, filter, parameters, target, name);
+            return name;
+        }
+        if (COSName.JBIG2_DECODE.equals(filter))
+        {
+            String name = prefix + ".jb2";
+            byte[] header = new byte[JBIG2_HEADER.length + 5];
+            System.arraycopy(JBIG2_HEADER, 0, header, 0, JBIG2_HEADER.length);
+            // sequential organization, one page
+            header[JBIG2_HEADER.length] = 0x01;
+            header[header.length - 1] = 1;
+            InputStream data = openEncoded(image, filter);
+            COSBase globals = parameters.getDictionaryObject(COSName.JBIG2_GLOBALS);
+            if (globals instanceof COSStream)
+            {
+                // the segments shared by the images of the document come before the segments of the page
+                data = new SequenceInputStream(((COSStream) globals).createInputStream(), data);
+            }
+            copy(data, header, target, name);
+            return name;
+        }
+        return null;
+    }
+
+    /**
+     * Wraps the CCITT data in a little endian TIFF holding the image in a single strip right after the header.
+     */
+    private static void writeTIFF(PDImage image, COSName filter, COSDictionary parameters, OutputTarget target,
+                                  String name) throws IOException
+    {
+        InputStream data;
+        long length;
+        if (isStored(image))
+        {
+            data = openEncoded(image, filter);
+            length = ((PDImageXObject) image).getCOSObject().getLength();
+        }
+        else
+        {
+            byte[] bytes;
+            try (InputStream encoded = openEncoded(image, filter))
+            {
+                bytes = IOUtils.toByteArray(encoded);
+            }
+            data = new ByteArrayInputStream(bytes);
+            length = bytes.length;
+        }
+        int k = parameters.getInt(COSName.K, 0);
+        boolean blackIs1 = parameters.getBoolean(COSName.BLACK_IS_1, false);
+        COSArray decode = image.getDecode();
+        if (decode != null && decode.size() > 0 && decode.getObject(0) instanceof COSNumber
+                && ((COSNumber) decode.getObject(0)).floatValue() == 1)
+        {
+            blackIs1 = !blackIs1;
+        }
+
+        int entries = k < 0 ? 9 : 10;
+        int dataOffset = 8 + 2 + entries * 12 + 4;
+        ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        header.putShort((short) entries);
+        putEntry(header, IMAGE_WIDTH, LONG, image.getWidth());
+        putEntry(header, IMAGE_LENGTH, LONG, image.getHeight());
+        putEntry(header, BITS_PER_SAMPLE, SHORT, 1);
+        // 3 is T.4 (Group 3), 4 is T.6 (Group 4)
+        putEntry(header, COMPRESSION, SHORT, k < 0 ? 4 : 3);
+        // the same mapping as CCITTFactory: BlackIs1 is BlackIsZero (1), else WhiteIsZero (0)
+        putEntry(header, PHOTOMETRIC_INTERPRETATION, SHORT, blackIs1 ? 1 : 0);
+        putEntry(header, STRIP_OFFSETS, LONG, dataOffset);
+        putEntry(header, SAMPLES_PER_PIXEL, SHORT, 1);
+        putEntry(header, ROWS_PER_STRIP, LONG, image.getHeight());
+        putEntry(header, STRIP_BYTE_COUNTS, LONG, length);
+        if (k >= 0)
+        {
+            // bit 0 is set for two dimensional coding
+            putEntry(header, T4_OPTIONS, LONG, k > 0 ? 1 : 0);
+        }
+        // no next IFD
+        header.putInt(0);
+        copy(data, header.array(), target, name);
+    }
+
+    private static void putEntry(ByteBuffer header, int tag, short type, long value)
+    {
+        header.putShort((short) tag).putShort(type).putInt(1);
+        if (type == SHORT)
+        {
+            header.putShort((short) value).putShort((short) 0);
+        }
+        else
+        {
+            header.putInt((int) value);
+        }
+    }
+
+    /**
+     * Copies the head, then the data, to the result. Files are written with FileChannel.transferFrom(), the other
+     * targets through a single buffer.
+     */
+    private static void copy(InputStream data, byte[] head, OutputTarget target, String name) throws IOException
+    {
+        try (ReadableByteChannel source = Channels.newChannel(data);
+             WritableByteChannel channel = target.openChannel(name))
+        {
+            if (head != null)
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(head);
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+            }
+            if (channel instanceof FileChannel)
+            {
+                FileChannel file = (FileChannel) channel;
+                long position = file.position();
+                long transferred;
+                while ((transferred = file.transferFrom(source, position, CHUNK_SIZE)) > 0)
+                {
+                    position += transferred;
+                }
+            }
+            else
+            {
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                while (source.read(buffer) >= 0)
+                {
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                    {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the encoded data of the image: the stored stream when the image codec is its only filter, else the
+     * result of the filters applied before the codec.
+     */
+    private static InputStream openEncoded(PDImage image, COSName filter) throws IOException
+    {
+        if (isStored(image))
+        {
+            return ((PDImageXObject) image).getCOSObject().createRawInputStream();
+        }
+        return image.createInputStream(Collections.singletonList(filter.getName()));
+    }
+
+    private static boolean isStored(PDImage image)
+    {
+        return image instanceof PDImageXObject && getFilters(image.getCOSObject()).size() == 1;
+    }
+
+    private static List<COSName> getFilters(COSDictionary dictionary)
+    {
+        COSBase filters = dictionary.getDictionaryObject(COSName.FILTER, COSName.F);
+        List<COSName> names = new ArrayList<>();
+        if (filters instanceof COSName)
+        {
+            names.add((COSName) filters);
+        }
+        else if (filters instanceof COSArray)
+        {
+            for (COSBase filter : (COSArray) filters)
+            {
+                if (!(filter instanceof COSName))
+                {
+                    return Collections.emptyList();
+                }
+                names.add((COSName) filter);
+            }
+        }
+        return names;
+    }
+
+    private static COSDictionary getDecodeParameters(COSDictionary dictionary, int index)
+    {
+        COSBase parameters = dictionary.getDictionaryObject(COSName.DECODE_PARMS, COSName.DP);
+        if (parameters instanceof COSArray && index < ((COSArray) parameters).size())
+        {
+            parameters = ((COSArray) parameters).getObject(index);
+        }
+        return parameters instanceof COSDictionary ? (COSDictionary) parameters : new COSDictionary();
+    }
+
+    private static byte[] readHead(InputStream data, int length) throws IOException
+    {
+        byte[] head = new byte[length];
+        int read = 0;
+        while (read < length)
+        {
+            int n = data.read(head, read, length - read);
+            if (n < 0)
+            {
+                byte[] shorter = new byte[read];
+                System.arraycopy(head, 0, shorter, 0, read);
+                return shorter;
+            }
+            read += n;
+        }
+        return head;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix)
+    {
+        if (data.length < prefix.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (data[i] != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
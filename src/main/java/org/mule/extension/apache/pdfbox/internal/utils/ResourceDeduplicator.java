@@ -0,0 +1,151 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDPage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares identical font programs and images between the pages of a document. PDFBox only reuses the objects it
+ * clones from the same source document, so merging many documents that embed the same font or logo ends up with
+ * one copy per source. This class keys every font file and image stream by a digest of its raw data and of its
+ * dictionary (see StreamDigest), and points every later copy to the first one, so only that one gets written.
+ */
+public final class ResourceDeduplicator
+{
+    private static final COSName[] FONT_FILES = { COSName.FONT_FILE, COSName.FONT_FILE2, COSName.FONT_FILE3 };
+
+    /**
+     * Nesting limit when walking resources, to protect against cyclic structures.
+     */
+    private static final int MAX_DEPTH = 16;
+
+    private final Map<String, COSStream> streams = new HashMap<>();
+    private final StreamDigest digest = new StreamDigest();
+    private int duplicates;
+
+    /**
+     * Replaces the font programs and images of the page that are identical to ones already seen.
+     *
+     * @param page a page of the destination document.
+     * @throws IOException if the data of a stream can't be read.
+     */
+    public void deduplicate(PDPage page) throws IOException
+    {
+        deduplicateResources(page.getCOSObject().getCOSDictionary(COSName.RESOURCES), 0);
+    }
+
+    /**
+     * @return the number of streams that have been replaced by an identical one.
+     */
+    public int getDuplicates()
+    {
+        return duplicates;
+    }
+
+    private void deduplicateResources(COSDictionary resources, int depth) throws IOException
+    {
+        if (resources == null || depth > MAX_DEPTH)
+        {
+            return;
+        }
+        COSDictionary fonts = resources.getCOSDictionary(COSName.FONT);
+        if (fonts != null)
+        {
+            for (COSName name : fonts.keySet())
+            {
+                deduplicateFont(fonts.getCOSDictionary(name), depth);
+            }
+        }
+        COSDictionary xObjects = resources.getCOSDictionary(COSName.XOBJECT);
+        if (xObjects != null)
+        {
+            for (COSName name : new ArrayList<>(xObjects.keySet()))
+            {
+                COSBase xObject = xObjects.getDictionaryObject(name);
+                if (!(xObject instanceof COSStream))
+                {
+                    continue;
+                }
+                COSStream stream = (COSStream) xObject;
+                if (COSName.IMAGE.equals(stream.getCOSName(COSName.SUBTYPE)))
+                {
+                    COSStream shared = share(stream);
+                    if (shared != stream)
+                    {
+                        xObjects.setItem(name, shared);
+                    }
+                }
+                else if (COSName.FORM.equals(stream.getCOSName(COSName.SUBTYPE)))
+                {
+                    deduplicateResources(stream.getCOSDictionary(COSName.RESOURCES), depth + 1);
+                }
+            }
+        }
+    }
+
+    private void deduplicateFont(COSDictionary font, int depth) throws IOException
+    {
+        if (font == null)
+        {
+            return;
+        }
+        deduplicateFontDescriptor(font.getCOSDictionary(COSName.FONT_DESC));
+        COSArray descendants = font.getCOSArray(COSName.DESCENDANT_FONTS);
+        if (descendants != null)
+        {
+            for (int i = 0; i < descendants.size(); i++)
+            {
+                COSBase descendant = descendants.getObject(i);
+                if (descendant instanceof COSDictionary)
+                {
+                    deduplicateFontDescriptor(((COSDictionary) descendant).getCOSDictionary(COSName.FONT_DESC));
+                }
+            }
+        }
+        // type 3 glyphs are content streams with their own resources
+        deduplicateResources(font.getCOSDictionary(COSName.RESOURCES), depth + 1);
+    }
+
+    private void deduplicateFontDescriptor(COSDictionary descriptor) throws IOException
+    {
+        if (descriptor == null)
+        {
+            return;
+        }
+        for (COSName fontFile : FONT_FILES)
+        {
+            COSBase program = descriptor.getDictionaryObject(fontFile);
+            if (program instanceof COSStream)
+            {
+                COSStream shared = share((COSStream) program);
+                if (shared != program)
+                {
+                    descriptor.setItem(fontFile, shared);
+                }
+            }
+        }
+    }
+
+    private COSStream share(COSStream stream) throws IOException
+    {
+        String key = digest.keyOf(stream);
+        COSStream shared = streams.putIfAbsent(key, stream);
+        if (shared == null)
+        {
+            return stream;
+        }
+        if (shared != stream)
+        {
+            duplicates++;
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,139 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes keys identifying the content of streams: a digest of the raw data of the stream and of its dictionary,
+ * nested streams (soft masks, ICC profiles...) being compared by content as well. Two streams with the same key
+ * are byte-identical, even if they are different objects. The key of every stream is computed once and kept for
+ * the lifetime of this instance. Not thread safe.
+ */
+public final class StreamDigest
+{
+    /**
+     * Nesting limit when describing dictionaries, to protect against cyclic structures.
+     */
+    private static final int MAX_DEPTH = 16;
+
+    private final Map<COSStream, String> keys = new IdentityHashMap<>();
+    private final MessageDigest digest;
+
+    public StreamDigest()
+    {
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @param stream the stream to identify.
+     * @return the key of the content of the stream.
+     * @throws IOException if the data of the stream can't be read.
+     */
+    public String keyOf(COSStream stream) throws IOException
+    {
+        return keyOf(stream, 0);
+    }
+
+    private String keyOf(COSStream stream, int depth) throws IOException
+    {
+        String key = keys.get(stream);
+        if (key != null)
+        {
+            return key;
+        }
+        // the description is complete before the digest is used, nested streams are digested while describing
+        StringBuilder description = new StringBuilder();
+        describeEntries(stream, description, depth);
+        digest.reset();
+        digest.update(description.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[8192];
+        try (InputStream raw = stream.createRawInputStream())
+        {
+            int read;
+            while ((read = raw.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+        key = Base64.getEncoder().encodeToString(digest.digest());
+        keys.put(stream, key);
+        return key;
+    }
+
+    private void describe(COSBase value, StringBuilder description, int depth) throws IOException
+    {
+        if (value instanceof COSObject)
+        {
+            value = ((COSObject) value).getObject();
+        }
+        if (depth > MAX_DEPTH)
+        {
+            // too deep to compare, make the key unique so the stream never matches another one
+            description.append('#').append(System.identityHashCode(value));
+        }
+        else if (value instanceof COSStream)
+        {
+            description.append("stream:").append(keyOf((COSStream) value, depth));
+        }
+        else if (value instanceof COSDictionary)
+        {
+            describeEntries((COSDictionary) value, description, depth);
+        }
+        else if (value instanceof COSArray)
+        {
+            COSArray array = (COSArray) value;
+            description.append('[');
+            for (int i = 0; i < array.size(); i++)
+            {
+                describe(array.get(i), description, depth + 1);
+                description.append(',');
+            }
+            description.append(']');
+        }
+        else
+        {
+            description.append(value);
+        }
+    }
+
+    private void describeEntries(COSDictionary dictionary, StringBuilder description, int depth) throws IOException
+    {
+        List<COSName> names = new ArrayList<>(dictionary.keySet());
+        names.sort(null);
+        description.append("<<");
+        for (COSName name : names)
+        {
+            // the length depends on how the stream was written, not on its content
+            if (dictionary instanceof COSStream && COSName.LENGTH.equals(name))
+            {
+                continue;
+            }
+            description.append(name.getName()).append('=');
+            describe(dictionary.getItem(name), description, depth + 1);
+            description.append(';');
+        }
+        description.append(">>");
+    }
+}
@@ -0,0 +1,149 @@
+package org.mule.extension.apache.pdfbox.internal.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers to run the work of an operation on a bounded set of worker threads. Pools are created per operation
+ * call and must be shut down by the caller once the work is done.
+ */
+public final class WorkerPool
+{
+    private WorkerPool()
+    {
+    }
+
+    /**
+     * Resolves the number of workers to use for a requested degree of parallelism.
+     *
+     * @param requested the requested number of workers, a value lower than 1 means one worker per available core.
+     * @param tasks the number of tasks to run, there is no point in starting more workers than tasks.
+     * @return the number of workers to start, at least 1.
+     */
+    public static int parallelism(int requested, int tasks)
+    {
+        int workers = requested < 1 ? Runtime.getRuntime().availableProcessors() : requested;
+        return Math.max(1, Math.min(workers, tasks));
+    }
+
+    /**
+     * Creates a fixed size pool of daemon threads named after the given operation.
+     *
+     * @param name the name used as prefix for the threads of the pool.
+     * @param threads the number of threads of the pool.
+     * @return a new executor, the caller is responsible for shutting it down.
+     */
+    public static ExecutorService newPool(String name, int threads)
+    {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "pdfbox-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Waits for all the given tasks to finish. If one of them fails, the remaining ones are cancelled and the
+     * failure is rethrown.
+     *
+     * @param futures the tasks to wait for.
+     * @throws IOException if one of the tasks failed with an IOException, or the wait was interrupted.
+     */
+    public static void awaitAll(List<? extends Future<?>> futures) throws IOException
+    {
+        try
+        {
+            for (Future<?> future : futures)
+            {
+                await(future);
+            }
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            cancelAll(futures);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a task to finish and rethrows its failure, if any.
+     *
+     * @param future the task to wait for.
+     * @param <T> the type of the result of the task.
+     * @return the result of the task.
+     * @throws IOException if the task failed with an IOException, or the wait was interrupted.
+     */
+    public static <T> T await(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for workers", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException)
+            {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Waits for the workers of a pool that was shut down to finish their current task. An interrupt is kept for
+     * the caller, which is usually already propagating a failure.
+     *
+     * @param pool the pool that was shut down.
+     */
+    public static void awaitTermination(ExecutorService pool)
+    {
+        try
+        {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancels the given tasks, interrupting the ones already running.
+     *
+     * @param futures the tasks to cancel.
+     */
+    public static void cancelAll(List<? extends Future<?>> futures)
+    {
+        for (Future<?> future : futures)
+        {
+            future.cancel(true);
+        }
+    }
+}
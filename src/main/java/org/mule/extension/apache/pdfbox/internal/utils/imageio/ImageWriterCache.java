@@ -0,0 +1,67 @@
+package org.mule.extension.apache.pdfbox.internal.utils.imageio;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The prepared writers of an operation call, so that writing many images of the same kind only looks the writer
+ * up, builds its parameters and its metadata once. An ImageWriter can't be used by several threads at the same
+ * time, so a writer is taken from the cache for a write and given back once it's done: the threads of the
+ * operation share the idle writers. The cache is owned by the operation, which closes it to dispose the writers
+ * once all its images are written.
+ */
+public final class ImageWriterCache implements Closeable
+{
+    // a handful of formats and settings are used at the same time, keep a few more in case of mixed images
+    private static final int MAX_KINDS = 16;
+
+    private final Map<imageIOUtil.WriterKey, Deque<imageIOUtil.PreparedWriter>> idle =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private boolean closed;
+
+    /**
+     * @return an idle writer prepared for the given kind of image, or null if there is none.
+     */
+    synchronized imageIOUtil.PreparedWriter take(imageIOUtil.WriterKey key)
+    {
+        Deque<imageIOUtil.PreparedWriter> writers = idle.get(key);
+        return writers == null ? null : writers.poll();
+    }
+
+    /**
+     * Gives back a writer once it's done writing, it is disposed if the cache is already closed.
+     */
+    synchronized void release(imageIOUtil.WriterKey key, imageIOUtil.PreparedWriter writer)
+    {
+        if (closed)
+        {
+            writer.dispose();
+            return;
+        }
+        idle.computeIfAbsent(key, k -> new ArrayDeque<>()).push(writer);
+        if (idle.size() > MAX_KINDS)
+        {
+            Map.Entry<imageIOUtil.WriterKey, Deque<imageIOUtil.PreparedWriter>> eldest =
+                    idle.entrySet().iterator().next();
+            idle.remove(eldest.getKey());
+            eldest.getValue().forEach(imageIOUtil.PreparedWriter::dispose);
+        }
+    }
+
+    /**
+     * Disposes the idle writers, the writers still in use are disposed when they are given back.
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        for (Deque<imageIOUtil.PreparedWriter> writers : idle.values())
+        {
+            writers.forEach(imageIOUtil.PreparedWriter::dispose);
+        }
+        idle.clear();
+    }
+}
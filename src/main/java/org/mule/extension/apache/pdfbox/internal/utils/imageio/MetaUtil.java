@@ -29,6 +29,11 @@ public final class MetaUtil
 
     static void debugLogMetadata(IIOMetadata metadata, String format)
     {
+        if (!LOG.isDebugEnabled())
+        {
+            // serializing the metadata costs more than writing a small image
+            return;
+        }
 
         IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
         try
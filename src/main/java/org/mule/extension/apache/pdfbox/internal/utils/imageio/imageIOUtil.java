@@ -4,6 +4,7 @@ import java.awt.color.ColorSpace;
 import java.awt.color.ICC_ColorSpace;
 import java.awt.color.ICC_Profile;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
@@ -13,6 +14,7 @@ import java.io.OutputStream;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Objects;
 import java.util.zip.DeflaterOutputStream;
 
 import javax.imageio.IIOImage;
@@ -90,43 +92,117 @@ public final class imageIOUtil
     public static boolean writeImage(BufferedImage image, String formatName, OutputStream output,
                                      int dpi, float compressionQuality, String compressionType) throws IOException
     {
-        ImageOutputStream imageOutput = null;
-        ImageWriter writer = null;
+        return writeImage(image, formatName, output, dpi, compressionQuality, compressionType, null);
+    }
+
+    /**
+     * Writes an image at 72 dpi with the default quality, reusing the writers of the given cache.
+     */
+    public static boolean writeImage(BufferedImage image, String formatName, OutputStream output,
+                                     ImageWriterCache writers) throws IOException
+    {
+        float compressionQuality = 1f;
+        if ("png".equalsIgnoreCase(formatName))
+        {
+            // PDFBOX-4655: prevent huge PNG files on jdk11 / jdk12 / jjdk13
+            compressionQuality = 0f;
+        }
+        return writeImage(image, formatName, output, 72, compressionQuality, "", writers);
+    }
+
+    public static boolean writeImage(BufferedImage image, String formatName, OutputStream output,
+                                     int dpi, float compressionQuality, ImageWriterCache writers) throws IOException
+    {
+        return writeImage(image, formatName, output, dpi, compressionQuality, "", writers);
+    }
+
+    /**
+     * Writes an image, reusing a writer of the cache prepared for the same kind of image if there is one.
+     *
+     * @param writers the writers of the operation, or null to prepare a writer for this image only.
+     * @return false if there is no writer for the format.
+     */
+    public static boolean writeImage(BufferedImage image, String formatName, OutputStream output, int dpi,
+                                     float compressionQuality, String compressionType, ImageWriterCache writers)
+            throws IOException
+    {
+        WriterKey key = writers == null ? null
+                : WriterKey.of(image, formatName, dpi, compressionQuality, compressionType);
+        PreparedWriter prepared = key == null ? null : writers.take(key);
+        if (prepared == null)
+        {
+            prepared = prepare(image, formatName, dpi, compressionQuality, compressionType);
+            if (prepared == null)
+            {
+                return false;
+            }
+        }
+        boolean reused = false;
         try
         {
-            // find suitable image writer
-            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
-            ImageWriteParam param = null;
-            IIOMetadata metadata = null;
-            // Loop until we get the best driver, i.e. one that supports
-            // setting dpi in the standard metadata format; however we'd also
-            // accept a driver that can't, if a better one can't be found
-            while (writers.hasNext())
+            prepared.write(image, output);
+            if (key != null)
             {
-                if (writer != null)
-                {
-                    writer.dispose();
-                }
-                writer = writers.next();
-                if (writer != null)
-                {
-                    param = writer.getDefaultWriteParam();
-                    metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
-                    if (metadata != null
-                            && !metadata.isReadOnly()
-                            && metadata.isStandardMetadataFormatSupported())
-                    {
-                        break;
-                    }
-                }
+                prepared.writer.reset();
+                writers.release(key, prepared);
+                reused = true;
             }
-            if (writer == null)
+        }
+        finally
+        {
+            if (!reused)
             {
-                LOG.error("No ImageWriter found for '" + formatName + "' format");
-                LOG.error("Supported formats: " + Arrays.toString(ImageIO.getWriterFormatNames()));
-                return false;
+                // don't reuse a writer left in an unknown state
+                prepared.dispose();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the writer for the image and prepares its parameters and metadata.
+     *
+     * @return the prepared writer, or null if there is no writer for the format.
+     */
+    private static PreparedWriter prepare(BufferedImage image, String formatName, int dpi,
+                                          float compressionQuality, String compressionType) throws IOException
+    {
+        ImageWriter writer = null;
+        // find suitable image writer
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+        ImageWriteParam param = null;
+        IIOMetadata metadata = null;
+        // Loop until we get the best driver, i.e. one that supports
+        // setting dpi in the standard metadata format; however we'd also
+        // accept a driver that can't, if a better one can't be found
+        while (writers.hasNext())
+        {
+            if (writer != null)
+            {
+                writer.dispose();
             }
+            writer = writers.next();
+            if (writer != null)
+            {
+                param = writer.getDefaultWriteParam();
+                metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+                if (metadata != null
+                        && !metadata.isReadOnly()
+                        && metadata.isStandardMetadataFormatSupported())
+                {
+                    break;
+                }
+            }
+        }
+        if (writer == null)
+        {
+            LOG.error("No ImageWriter found for '" + formatName + "' format");
+            LOG.error("Supported formats: " + Arrays.toString(ImageIO.getWriterFormatNames()));
+            return null;
+        }
 
+        try
+        {
             // compression
             if (param != null && param.canWriteCompressed())
             {
@@ -187,23 +263,110 @@ public final class imageIOUtil
                 nativeTree.appendChild(iccp);
                 metadata.mergeTree(metadata.getNativeMetadataFormatName(), nativeTree);
             }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            writer.dispose();
+            throw e;
+        }
+        return new PreparedWriter(writer, param, metadata);
+    }
 
-            imageOutput = ImageIO.createImageOutputStream(output);
-            writer.setOutput(imageOutput);
-            writer.write(null, new IIOImage(image, null, metadata), param);
+    /**
+     * A writer with the parameters and metadata prepared for a kind of image.
+     */
+    static final class PreparedWriter
+    {
+        private final ImageWriter writer;
+        private final ImageWriteParam param;
+        private final IIOMetadata metadata;
+
+        private PreparedWriter(ImageWriter writer, ImageWriteParam param, IIOMetadata metadata)
+        {
+            this.writer = writer;
+            this.param = param;
+            this.metadata = metadata;
         }
-        finally
+
+        private void write(BufferedImage image, OutputStream output) throws IOException
         {
-            if (writer != null)
+            try (ImageOutputStream imageOutput = ImageIO.createImageOutputStream(output))
             {
-                writer.dispose();
+                writer.setOutput(imageOutput);
+                writer.write(null, new IIOImage(image, null, metadata), param);
+            }
+        }
+
+        void dispose()
+        {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Identifies the images a prepared writer can be reused for: the writer, its parameters and its metadata only
+     * depend on the format, the settings and the type of the image, and on its height for TIFF.
+     */
+    static final class WriterKey
+    {
+        private final String formatName;
+        private final int dpi;
+        private final float compressionQuality;
+        private final String compressionType;
+        private final int imageType;
+        private final int height;
+
+        private WriterKey(String formatName, int dpi, float compressionQuality, String compressionType,
+                          int imageType, int height)
+        {
+            this.formatName = formatName;
+            this.dpi = dpi;
+            this.compressionQuality = compressionQuality;
+            this.compressionType = compressionType;
+            this.imageType = imageType;
+            this.height = height;
+        }
+
+        /**
+         * @return the key of the image, or null if the writer must be prepared for this image only: the metadata
+         * of images with a custom layout, a palette or an ICC profile depends on more than their type.
+         */
+        static WriterKey of(BufferedImage image, String formatName, int dpi, float compressionQuality,
+                            String compressionType)
+        {
+            if (image.getType() == BufferedImage.TYPE_CUSTOM
+                    || image.getColorModel() instanceof IndexColorModel
+                    || hasICCProfile(image))
+            {
+                return null;
             }
-            if (imageOutput != null)
+            String format = formatName.toLowerCase();
+            // the TIFF metadata holds the number of rows per strip
+            int height = format.startsWith("tif") ? image.getHeight() : 0;
+            return new WriterKey(format, dpi, compressionQuality, compressionType, image.getType(), height);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof WriterKey))
             {
-                imageOutput.close();
+                return false;
             }
+            WriterKey other = (WriterKey) o;
+            return formatName.equals(other.formatName)
+                    && dpi == other.dpi
+                    && Float.compare(compressionQuality, other.compressionQuality) == 0
+                    && Objects.equals(compressionType, other.compressionType)
+                    && imageType == other.imageType
+                    && height == other.height;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(formatName, dpi, compressionQuality, compressionType, imageType, height);
         }
-        return true;
     }
 
     private static boolean hasICCProfile(BufferedImage image)